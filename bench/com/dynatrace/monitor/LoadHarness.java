@@ -0,0 +1,264 @@
+package com.dynatrace.monitor;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.dynatrace.diagnostics.pdk.MonitorEnvironment;
+import com.dynatrace.diagnostics.pdk.Status;
+
+/**
+ * Runs many {@link TierTimeMonitor} instances concurrently against a
+ * {@link StubReportServer}, each through <tt>setup</tt>, a number of
+ * scheduled <tt>execute</tt> calls and <tt>teardown</tt>, with a
+ * {@link StubMonitorEnvironment} of its own.
+ *
+ * Every instance runs on its own thread like a collector schedule: the
+ * first execution starts at a random offset within the interval, and every
+ * further one at the next interval boundary. An execution that takes longer
+ * than the interval is an overrun; the collector would skip the executions
+ * it overlaps, and so does the harness. At the end the cycle latency
+ * percentiles, overruns and execution results are printed, together with the
+ * server side requests and connections, the peak thread and file descriptor
+ * counts of the process, and the heap retained per instance after setup
+ * and after the last execution.
+ *
+ * <pre>
+ * java com.dynatrace.monitor.LoadHarness [-Dmonitors=200] [-Dcycles=5] [-Dinterval=10]
+ *      [-Dprotocol=http|https] [-Dagents=1000] [-Dlatency=0] [-Djitter=0]
+ *      [-DbytesPerSecond=0] [-DmaxConcurrent=0] [-DerrorRate=0] [-Dauth=true]
+ *      [-Dsplit=Agent Group] [-Dparser=Streaming] [-Dset.&lt;property&gt;=&lt;value&gt;]
+ * </pre>
+ *
+ * <tt>interval</tt> is in seconds, <tt>latency</tt> and <tt>jitter</tt> in
+ * milliseconds. <tt>auth=wrong</tt> makes the monitors send wrong
+ * credentials. <tt>set.</tt> properties are passed to the plugin
+ * configuration of every instance, e.g. <tt>-Dset.sharedCache=true</tt>;
+ * numbers are passed as longs and <tt>true</tt>/<tt>false</tt> as booleans.
+ */
+public class LoadHarness {
+
+	// loggers are only weakly referenced, the level would be lost with it
+	private static final Logger pluginLogger = Logger.getLogger("com.dynatrace.monitor");
+
+	private static final long SAMPLE_INTERVAL = 100;
+
+	public static void main(String[] args) throws Exception {
+
+		pluginLogger.setLevel(Level.parse(System.getProperty("logLevel", "SEVERE")));
+
+		final int monitors = Integer.parseInt(System.getProperty("monitors", "200"));
+		final int cycles = Integer.parseInt(System.getProperty("cycles", "5"));
+		final long interval = (long) (Double.parseDouble(System.getProperty("interval", "10")) * 1000);
+		boolean https = "https".equals(System.getProperty("protocol", "http"));
+		int agents = Integer.parseInt(System.getProperty("agents", "1000"));
+		String auth = System.getProperty("auth", "true");
+
+		byte[] report = ReportGenerator.forAgents(agents).generate();
+		StubReportServer server = new StubReportServer(report)
+				.setLatency(Long.parseLong(System.getProperty("latency", "0")), Long.parseLong(System.getProperty("jitter", "0")))
+				.setBytesPerSecond(Long.parseLong(System.getProperty("bytesPerSecond", "0")))
+				.setMaxConcurrent(Integer.parseInt(System.getProperty("maxConcurrent", "0")))
+				.setErrorRate(Double.parseDouble(System.getProperty("errorRate", "0")))
+				.setCredentials("false".equals(auth) ? null : "admin", "admin");
+		server.start(https);
+
+		final StubMonitorEnvironment[] stubs = new StubMonitorEnvironment[monitors];
+		final TierTimeMonitor[] instances = new TierTimeMonitor[monitors];
+		for (int i = 0; i < monitors; i++) {
+			stubs[i] = new StubMonitorEnvironment().set("protocol", https ? "https" : "http").set("httpPort", Long.valueOf(server.getPort()))
+					.set("password", "wrong".equals(auth) ? "wrong" : "admin")
+					.set("splitChoice", System.getProperty("split", "Agent Group")).set("parserMode", System.getProperty("parser", "Streaming"));
+			for (Map.Entry<Object, Object> property : System.getProperties().entrySet()) {
+				String key = property.getKey().toString();
+				if (key.startsWith("set.")) {
+					stubs[i].set(key.substring(4), parseValue(property.getValue().toString()));
+				}
+			}
+			instances[i] = new TierTimeMonitor();
+		}
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		int baseThreads = threads.getThreadCount();
+		long baseDescriptors = openFileDescriptors();
+		long baseHeap = usedHeap(memory);
+
+		final Map<String, Integer> statuses = new TreeMap<String, Integer>();
+		for (int i = 0; i < monitors; i++) {
+			Status status = instances[i].setup(stubs[i].getEnvironment());
+			count(statuses, "setup " + status.getStatusCode());
+		}
+		long setupHeap = usedHeap(memory);
+
+		final long[] latencies = new long[monitors * cycles];
+		final int[] overruns = new int[monitors];
+		final int[] skipped = new int[monitors];
+		final CountDownLatch done = new CountDownLatch(monitors);
+		final long start = System.currentTimeMillis() + 100;
+		final Random random = new Random(7);
+		Thread[] runners = new Thread[monitors];
+		for (int i = 0; i < monitors; i++) {
+			final int instance = i;
+			final long offset = (long) (random.nextDouble() * interval);
+			runners[i] = new Thread("monitor-" + i) {
+				@Override
+				public void run() {
+					try {
+						MonitorEnvironment env = stubs[instance].getEnvironment();
+						long next = start + offset;
+						for (int cycle = 0; cycle < cycles; cycle++) {
+							sleepUntil(next);
+							long cycleStart = System.nanoTime();
+							String result;
+							try {
+								result = instances[instance].execute(env).getStatusCode().toString();
+							} catch (Exception e) {
+								result = e.getClass().getSimpleName();
+							}
+							long latency = System.nanoTime() - cycleStart;
+							latencies[instance * cycles + cycle] = latency;
+							synchronized (statuses) {
+								count(statuses, "execute " + result);
+							}
+							next += interval;
+							if (latency / 1000000 > interval) {
+								overruns[instance]++;
+								// the schedule skips the executions the overrun overlapped
+								long now = System.currentTimeMillis();
+								while (next < now) {
+									next += interval;
+									skipped[instance]++;
+								}
+							}
+						}
+					} finally {
+						done.countDown();
+					}
+				}
+			};
+			runners[i].setDaemon(true);
+			runners[i].start();
+		}
+
+		int peakThreads = 0;
+		long peakDescriptors = 0;
+		while (done.getCount() > 0) {
+			peakThreads = Math.max(peakThreads, threads.getThreadCount());
+			peakDescriptors = Math.max(peakDescriptors, openFileDescriptors());
+			Thread.sleep(SAMPLE_INTERVAL);
+		}
+		long runHeap = usedHeap(memory);
+		int threadsBeforeTeardown = threads.getThreadCount();
+		long descriptorsBeforeTeardown = openFileDescriptors();
+
+		for (int i = 0; i < monitors; i++) {
+			instances[i].teardown(stubs[i].getEnvironment());
+		}
+		// give stopped pool threads a moment to exit
+		Thread.sleep(500);
+		int threadsAfterTeardown = threads.getThreadCount();
+		long descriptorsAfterTeardown = openFileDescriptors();
+		server.stop();
+
+		int executions = 0;
+		int totalOverruns = 0;
+		int totalSkipped = 0;
+		for (int i = 0; i < monitors; i++) {
+			totalOverruns += overruns[i];
+			totalSkipped += skipped[i];
+		}
+		long[] measured = new long[latencies.length];
+		for (long latency : latencies) {
+			if (latency > 0) {
+				measured[executions++] = latency;
+			}
+		}
+		Arrays.sort(measured, 0, executions);
+
+		System.out.println(String.format(Locale.ROOT, "monitors %d, cycles %d, interval %d ms, %s, report %d KB (%d agents)",
+				monitors, cycles, interval, https ? "https" : "http", report.length / 1024, agents));
+		System.out.println(String.format(Locale.ROOT, "cycle ms: p50 %.1f, p90 %.1f, p99 %.1f, max %.1f over %d executions",
+				percentile(measured, executions, 0.50) / 1e6, percentile(measured, executions, 0.90) / 1e6,
+				percentile(measured, executions, 0.99) / 1e6, executions == 0 ? 0 : measured[executions - 1] / 1e6, executions));
+		System.out.println("overruns: " + totalOverruns + ", skipped executions: " + totalSkipped);
+		System.out.println("results: " + statuses);
+		System.out.println(String.format(Locale.ROOT, "server: %d requests, %d served, %d unauthorized, %d throttled, %d failed, %.1f MB sent, peak %d in progress, %d client connections",
+				server.getRequests(), server.getServed(), server.getUnauthorized(), server.getThrottled(), server.getFailed(),
+				server.getBytesSent() / (double) (1 << 20), server.getPeakActive(), server.getConnections()));
+		System.out.println(String.format(Locale.ROOT, "threads: %d before setup, peak %d, %d before and %d after teardown",
+				baseThreads, peakThreads, threadsBeforeTeardown, threadsAfterTeardown));
+		if (baseDescriptors >= 0) {
+			System.out.println(String.format(Locale.ROOT, "file descriptors (sockets): %d before setup, peak %d, %d before and %d after teardown",
+					baseDescriptors, peakDescriptors, descriptorsBeforeTeardown, descriptorsAfterTeardown));
+		}
+		System.out.println(String.format(Locale.ROOT, "heap per instance: %.1f KB after setup, %.1f KB after the last execution",
+				(setupHeap - baseHeap) / 1024.0 / monitors, (runHeap - baseHeap) / 1024.0 / monitors));
+		System.exit(0);
+	}
+
+	private static void count(Map<String, Integer> counts, String key) {
+		Integer count = counts.get(key);
+		counts.put(key, count == null ? 1 : count + 1);
+	}
+
+	private static Object parseValue(String value) {
+		if (value.equals("true") || value.equals("false")) {
+			return Boolean.valueOf(value);
+		}
+		try {
+			return Long.valueOf(value);
+		} catch (NumberFormatException e) {
+			return value;
+		}
+	}
+
+	private static void sleepUntil(long time) {
+		for (long wait = time - System.currentTimeMillis(); wait > 0; wait = time - System.currentTimeMillis()) {
+			try {
+				Thread.sleep(wait);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	private static long percentile(long[] sorted, int count, double percentile) {
+		return count == 0 ? 0 : sorted[Math.min(count - 1, Math.max(0, (int) Math.ceil(percentile * count) - 1))];
+	}
+
+	/**
+	 * Returns the heap used after a full collection.
+	 */
+	private static long usedHeap(MemoryMXBean memory) throws InterruptedException {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(50);
+		}
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+
+	/**
+	 * Returns the open file descriptors of the process, or -1 if the JVM
+	 * does not expose <tt>com.sun.management.UnixOperatingSystemMXBean</tt>.
+	 */
+	private static long openFileDescriptors() {
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		try {
+			Method method = Class.forName("com.sun.management.UnixOperatingSystemMXBean").getMethod("getOpenFileDescriptorCount");
+			return ((Long) method.invoke(os)).longValue();
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package com.dynatrace.monitor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates synthetic TransactionFlow reports with the structure read by
+ * {@link TierTimeMonitor}: <tt>dashboardreport/data/admdashlet/adm/agent</tt>
+ * elements with <tt>response_*</tt>, <tt>exec_*</tt> and
+ * <tt>exec_cpu_*</tt> attributes, and <tt>adm_links/agent</tt> elements
+ * with <tt>to</tt> and <tt>remoting_count</tt>.
+ *
+ * Agents are spread over a configurable number of agent groups (tiers) and
+ * technologies. Every agent of a tier calls a few agents of the next tier,
+ * like a front-end to back-end chain. The same seed always produces the
+ * same report.
+ */
+public class ReportGenerator {
+
+	private static final String[] TECHNOLOGIES = { "Java", ".NET", "Web Server", "PHP", "Node.js", "Native" };
+	private static final String[] AGGREGATIONS = { "min", "avg", "max" };
+
+	private final int agents;
+	private final int groups;
+	private final int technologies;
+	private final int linksPerAgent;
+	private final long seed;
+
+	/**
+	 * @param agents
+	 *            number of <tt>adm/agent</tt> elements
+	 * @param groups
+	 *            number of agent groups the agents are spread over
+	 * @param technologies
+	 *            number of technologies the groups are spread over, at most 6
+	 * @param linksPerAgent
+	 *            number of <tt>adm_links/agent</tt> elements per agent
+	 * @param seed
+	 *            the random seed
+	 */
+	public ReportGenerator(int agents, int groups, int technologies, int linksPerAgent, long seed) {
+		this.agents = agents;
+		this.groups = Math.max(1, Math.min(groups, agents));
+		this.technologies = Math.max(1, Math.min(technologies, TECHNOLOGIES.length));
+		this.linksPerAgent = linksPerAgent;
+		this.seed = seed;
+	}
+
+	/**
+	 * Returns a generator with defaults derived from the number of agents:
+	 * about one group per 25 agents and two links per agent.
+	 */
+	public static ReportGenerator forAgents(int agents) {
+		return new ReportGenerator(agents, Math.max(2, agents / 25), 4, 2, 42);
+	}
+
+	public static String getAgentName(int agent) {
+		return "Agent" + agent + "[host" + (agent % 997) + "]@host" + (agent % 997) + ":" + (9000 + agent % 50);
+	}
+
+	public String getGroupName(int group) {
+		return "Tier" + group;
+	}
+
+	private int groupOf(int agent) {
+		return agent % groups;
+	}
+
+	/**
+	 * Generates the report as UTF-8 bytes.
+	 */
+	public byte[] generate() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(agents * 420 + 4096);
+		try {
+			Writer out = new OutputStreamWriter(bytes, "UTF-8");
+			write(out);
+			out.flush();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Writes the report to a writer.
+	 */
+	public void write(Writer out) throws IOException {
+		Random random = new Random(seed);
+		out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		out.write("<dashboardreport name=\"TransactionFlow\" version=\"6.5.0\" reportdate=\"2017-07-24T10:00:00.000+02:00\">\n");
+		out.write(" <source name=\"live:easyTravel\"/>\n");
+		out.write(" <data>\n  <admdashlet name=\"Transaction Flow\">\n   <adm>\n");
+		for (int agent = 0; agent < agents; agent++) {
+			int group = groupOf(agent);
+			out.write("    <agent name=\"");
+			out.write(getAgentName(agent));
+			out.write("\" group=\"");
+			out.write(getGroupName(group));
+			out.write("\" technology=\"");
+			out.write(TECHNOLOGIES[group % technologies]);
+			out.write("\" host=\"host" + (agent % 997) + "\"");
+			double response = 5 + random.nextDouble() * 500;
+			double exec = response * (0.2 + random.nextDouble() * 0.6);
+			double execCpu = exec * (0.1 + random.nextDouble() * 0.8);
+			writeValues(out, "response_", response, random);
+			writeValues(out, "exec_", exec, random);
+			writeValues(out, "exec_cpu_", execCpu, random);
+			out.write(" failed_percentage=\"" + format(random.nextDouble() * 2) + "\"/>\n");
+		}
+		out.write("   </adm>\n   <adm_links>\n");
+		for (int agent = 0; agent < agents; agent++) {
+			int nextGroup = (groupOf(agent) + 1) % groups;
+			for (int link = 0; link < linksPerAgent; link++) {
+				// agents of the next group are nextGroup, nextGroup + groups, ...
+				int callees = (agents - nextGroup + groups - 1) / groups;
+				if (callees <= 0 || nextGroup == groupOf(agent)) {
+					break;
+				}
+				int callee = nextGroup + groups * random.nextInt(callees);
+				out.write("    <agent name=\"");
+				out.write(getAgentName(agent));
+				out.write("\" to=\"");
+				out.write(getAgentName(callee));
+				out.write("\" remoting_count=\"" + (1 + random.nextInt(50000)) + "\"");
+				out.write(" remoting_time_avg=\"" + format(1 + random.nextDouble() * 100) + "\"/>\n");
+			}
+		}
+		out.write("   </adm_links>\n  </admdashlet>\n </data>\n</dashboardreport>\n");
+	}
+
+	private static void writeValues(Writer out, String prefix, double avg, Random random) throws IOException {
+		double[] values = { avg * (0.05 + random.nextDouble() * 0.5), avg, avg * (1.5 + random.nextDouble() * 8) };
+		for (int i = 0; i < AGGREGATIONS.length; i++) {
+			out.write(" " + prefix + AGGREGATIONS[i] + "=\"" + format(values[i]) + "\"");
+		}
+	}
+
+	private static String format(double value) {
+		return String.format(Locale.ROOT, "%.2f", value);
+	}
+}
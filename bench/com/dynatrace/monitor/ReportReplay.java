@@ -0,0 +1,101 @@
+package com.dynatrace.monitor;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.dynatrace.diagnostics.pdk.MonitorEnvironment;
+import com.dynatrace.diagnostics.pdk.Status;
+
+/**
+ * Replays the reports recorded by {@link ReportRecorder} through the parse,
+ * group, aggregate and publish pipeline of {@link TierTimeMonitor} against a
+ * {@link StubMonitorEnvironment}, as fast as the pipeline runs.
+ *
+ * The reports are replayed in the order they were recorded, one execution
+ * per report. The number of values written and their checksum identify the
+ * published numbers, so two builds can be compared on the same recording.
+ *
+ * <pre>
+ * java com.dynatrace.monitor.ReportReplay -Ddir=&lt;record directory&gt;
+ *      [-Dsplit=Agent Group] [-Dparser=Streaming] [-Dloops=1] [-Dverbose=false]
+ * </pre>
+ *
+ * <tt>verbose</tt> prints the timestamp, URL and cycle time of every report.
+ */
+public class ReportReplay {
+
+	// loggers are only weakly referenced, the level would be lost with it
+	private static final Logger pluginLogger = Logger.getLogger("com.dynatrace.monitor");
+
+	public static void main(String[] args) throws Exception {
+
+		pluginLogger.setLevel(Level.WARNING);
+
+		File directory = new File(System.getProperty("dir", "."));
+		String split = System.getProperty("split", "Agent Group");
+		String parser = System.getProperty("parser", "Streaming");
+		int loops = Integer.parseInt(System.getProperty("loops", "1"));
+		boolean verbose = Boolean.parseBoolean(System.getProperty("verbose", "false"));
+
+		File[] segments = ReportSegment.list(directory);
+		if (segments.length == 0) {
+			System.out.println("No segments in " + directory.getAbsolutePath());
+			return;
+		}
+
+		StubMonitorEnvironment stub = new StubMonitorEnvironment().set("splitChoice", split).set("parserMode", parser);
+		MonitorEnvironment env = stub.getEnvironment();
+		TierTimeMonitor monitor = new TierTimeMonitor();
+		monitor.setup(env);
+		long[] latencies = new long[1024];
+		int reports = 0;
+		int failed = 0;
+		long bytes = 0;
+		long start = System.nanoTime();
+		try {
+			for (int loop = 0; loop < loops; loop++) {
+				for (File file : segments) {
+					ReportSegment segment = new ReportSegment(file);
+					try {
+						while (segment.next()) {
+							long cycleStart = System.nanoTime();
+							Status status = monitor.processReport(env, segment.openReport());
+							long latency = System.nanoTime() - cycleStart;
+							if (!status.getStatusCode().equals(Status.StatusCode.Success)) {
+								failed++;
+							}
+							if (reports == latencies.length) {
+								latencies = Arrays.copyOf(latencies, reports * 2);
+							}
+							latencies[reports++] = latency;
+							bytes += segment.getLength();
+							if (verbose) {
+								System.out.println(String.format(Locale.ROOT, "%tFT%<tT.%<tL %8.3f ms %s", segment.getTimestamp(), latency / 1e6, segment.getUrl()));
+							}
+						}
+					} finally {
+						segment.close();
+					}
+				}
+			}
+		} finally {
+			monitor.teardown(env);
+		}
+		long elapsed = System.nanoTime() - start;
+		if (reports == 0) {
+			System.out.println("No reports in " + directory.getAbsolutePath());
+			return;
+		}
+
+		Arrays.sort(latencies, 0, reports);
+		System.out.println(String.format(Locale.ROOT, "%8s %8s %10s %12s %10s %10s %10s %16s",
+				"reports", "failed", "MB", "reports/s", "p50 ms", "p99 ms", "values", "checksum"));
+		System.out.println(String.format(Locale.ROOT, "%8d %8d %10.1f %12.1f %10.3f %10.3f %10d %16.6g",
+				reports, failed, bytes / (double) (1 << 20), reports / (elapsed / 1e9),
+				latencies[reports / 2] / 1e6, latencies[Math.min(reports - 1, (int) Math.ceil(0.99 * reports) - 1)] / 1e6,
+				stub.getValuesWritten(), stub.getChecksum()));
+	}
+}
@@ -0,0 +1,216 @@
+package com.dynatrace.monitor;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.dynatrace.diagnostics.pdk.MonitorEnvironment;
+import com.dynatrace.diagnostics.pdk.MonitorMeasure;
+import com.dynatrace.diagnostics.pdk.PluginEnvironment;
+
+/**
+ * In-memory <tt>MonitorEnvironment</tt> for running the monitor without a
+ * Dynatrace collector.
+ *
+ * Configuration values are taken from a map; missing strings read as empty
+ * and missing booleans as <tt>false</tt>, like unset plugin properties. All
+ * measures of the plugin are subscribed with the Tier Filter <tt>none</tt>,
+ * the percentile measures with the Percentile <tt>99</tt>. Only the values
+ * written to dynamic measures are counted, so the Tier Monitor Health
+ * values, which vary from run to run, do not enter the checksum. The environment
+ * is built on {@link Proxy} so that it does not depend on the exact method
+ * set of the PDK version on the class path.
+ */
+public class StubMonitorEnvironment {
+
+	private static final String[][] MEASURES = {
+		{ "Tier Time", "Response Time" },
+		{ "Tier Time", "Execution Time" },
+		{ "Tier Time", "Execution CPU Time" },
+		{ "Tier Count", "Transaction Count" },
+		{ "Tier Count", "Transaction Count Rate" },
+		{ "Tier Calls", "Call Count" },
+		{ "Tier Calls", "Call Rate" },
+		{ "Tier Percentiles", "Response Time Percentile" },
+		{ "Tier Percentiles", "Execution Time Percentile" },
+		{ "Tier Percentiles", "Execution CPU Time Percentile" },
+		{ "Tier Monitor Health", "Connect Time" },
+		{ "Tier Monitor Health", "Time to First Byte" },
+		{ "Tier Monitor Health", "Download Bytes" },
+		{ "Tier Monitor Health", "Download Time" },
+		{ "Tier Monitor Health", "Parse Time" },
+		{ "Tier Monitor Health", "Agents Processed" },
+		{ "Tier Monitor Health", "Tiers Processed" },
+		{ "Tier Monitor Health", "Measures Written" },
+		{ "Tier Monitor Health", "Measures Suppressed" },
+		{ "Tier Monitor Health", "Export Dropped" },
+		{ "Tier Monitor Health", "Fetch Skipped" },
+		{ "Tier Monitor Health", "Fetch Backoff" },
+		{ "Tier Monitor Health", "Cycle Time" },
+		{ "Tier Monitor Health", "Snapshot Age" },
+		{ "Tier Monitor Health", "Snapshot Stale" }
+	};
+
+	private final Map<String, Object> config = new HashMap<String, Object>();
+	private final Map<String, MonitorMeasure> subscribed = new LinkedHashMap<String, MonitorMeasure>();
+	private long dynamicMeasuresCreated;
+	private long valuesWritten;
+	private double checksum;
+
+	public StubMonitorEnvironment() {
+		config.put("protocol", "http");
+		config.put("httpPort", Long.valueOf(8020));
+		config.put("username", "admin");
+		config.put("password", "admin");
+		config.put("aggregation", "avg");
+		config.put("splitChoice", "Agent Group");
+		config.put("systemProfileFilter", "easyTravel");
+		config.put("timeframeFilter", "30 Minutes");
+		config.put("parserMode", "Streaming");
+		for (String[] measure : MEASURES) {
+			subscribed.put(measure[0] + "/" + measure[1], createMeasure(measure[0], measure[1], true));
+		}
+	}
+
+	/**
+	 * Sets a plugin property, e.g. <tt>splitChoice</tt> or <tt>parserMode</tt>.
+	 */
+	public StubMonitorEnvironment set(String key, Object value) {
+		config.put(key, value);
+		return this;
+	}
+
+	public MonitorEnvironment getEnvironment() {
+		return (MonitorEnvironment) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { MonitorEnvironment.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String name = method.getName();
+				if (name.startsWith("getConfig")) {
+					Object value = config.get(args[0]);
+					if (value == null && method.getReturnType() == String.class) {
+						return "";
+					}
+					if (value == null && method.getReturnType() == Boolean.class) {
+						return Boolean.FALSE;
+					}
+					return value;
+				}
+				if (name.equals("getHost")) {
+					return createHost();
+				}
+				if (name.equals("isStopped")) {
+					return Boolean.FALSE;
+				}
+				if (name.equals("getMonitorMeasures")) {
+					return getMonitorMeasures(args);
+				}
+				if (name.equals("createDynamicMeasure")) {
+					dynamicMeasuresCreated++;
+					MonitorMeasure base = (MonitorMeasure) args[0];
+					return createMeasure(base.getMetricGroupName(), base.getMeasureName(), false);
+				}
+				return defaultValue(proxy, method, args);
+			}
+		});
+	}
+
+	private Collection<MonitorMeasure> getMonitorMeasures(Object[] args) {
+		if (args == null || args.length == 0) {
+			return new ArrayList<MonitorMeasure>(subscribed.values());
+		}
+		MonitorMeasure measure = subscribed.get(args[0] + "/" + args[1]);
+		return measure == null ? Collections.<MonitorMeasure> emptyList() : Collections.singletonList(measure);
+	}
+
+	private MonitorMeasure createMeasure(final String group, final String name, final boolean subscription) {
+		return (MonitorMeasure) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { MonitorMeasure.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				String methodName = method.getName();
+				if (methodName.equals("getMeasureName") || methodName.equals("getMetricName")) {
+					return name;
+				}
+				if (methodName.equals("getMetricGroupName")) {
+					return group;
+				}
+				if (methodName.equals("getParameter")) {
+					if (!subscription) {
+						return null;
+					}
+					return "Percentile".equals(args[0]) ? "99" : "Tier Filter".equals(args[0]) ? "none" : null;
+				}
+				if (methodName.equals("setValue")) {
+					if (!subscription) {
+						valuesWritten++;
+						checksum += ((Number) args[0]).doubleValue();
+					}
+					return null;
+				}
+				return defaultValue(proxy, method, args);
+			}
+		});
+	}
+
+	private PluginEnvironment.Host createHost() {
+		return (PluginEnvironment.Host) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { PluginEnvironment.Host.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("getAddress")) {
+					return "127.0.0.1";
+				}
+				return defaultValue(proxy, method, args);
+			}
+		});
+	}
+
+	private static Object defaultValue(Object proxy, Method method, Object[] args) {
+		String name = method.getName();
+		if (name.equals("hashCode")) {
+			return Integer.valueOf(System.identityHashCode(proxy));
+		}
+		if (name.equals("equals")) {
+			return Boolean.valueOf(proxy == args[0]);
+		}
+		if (name.equals("toString")) {
+			return "stub " + method.getDeclaringClass().getSimpleName();
+		}
+		Class<?> type = method.getReturnType();
+		if (type == boolean.class) {
+			return Boolean.FALSE;
+		}
+		if (type == int.class) {
+			return Integer.valueOf(0);
+		}
+		if (type == long.class) {
+			return Long.valueOf(0);
+		}
+		if (type == double.class) {
+			return Double.valueOf(0);
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the number of dynamic measures created so far.
+	 */
+	public long getDynamicMeasuresCreated() {
+		return dynamicMeasuresCreated;
+	}
+
+	/**
+	 * Returns the number of values written to dynamic measures so far.
+	 */
+	public long getValuesWritten() {
+		return valuesWritten;
+	}
+
+	/**
+	 * Returns the sum of all values written, to keep the work observable.
+	 */
+	public double getChecksum() {
+		return checksum;
+	}
+}
@@ -0,0 +1,349 @@
+package com.dynatrace.monitor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.security.KeyStore;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+
+import org.apache.commons.codec.binary.Base64;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+/**
+ * Local stand-in for the report REST interface of a Dynatrace server,
+ * serving one generated TransactionFlow report at
+ * <tt>/rest/management/reports/create/TransactionFlow</tt> over HTTP or
+ * HTTPS.
+ *
+ * The server can be made slow or unreliable: a fixed latency with random
+ * jitter before the response headers, a bandwidth limit per response, a
+ * cap on the requests served at the same time (excess requests get 503), a
+ * share of requests failing with 500, and a Basic-auth check (401). The
+ * report is gzip compressed when the client accepts it. Counters of the
+ * requests, their outcome and the client connections seen are kept for the
+ * load harness.
+ *
+ * <pre>
+ * StubReportServer server = new StubReportServer(report).setLatency(200, 100).setMaxConcurrent(50);
+ * server.start(false);
+ * ...
+ * server.stop();
+ * </pre>
+ */
+public class StubReportServer {
+
+	public static final String REPORT_PATH = "/rest/management/reports/create/TransactionFlow";
+
+	private static final int CHUNK_SIZE = 8192;
+
+	private final byte[] report;
+	private final byte[] gzipReport;
+	private long latency;
+	private long jitter;
+	private long bytesPerSecond;
+	private int maxConcurrent;
+	private double errorRate;
+	private String authorization;
+	private File keyStore;
+	private String keyStorePassword = "changeit";
+
+	private HttpServer server;
+	private ExecutorService executor;
+	private Semaphore permits;
+	private final Random random = new Random(42);
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong served = new AtomicLong();
+	private final AtomicLong unauthorized = new AtomicLong();
+	private final AtomicLong throttled = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong bytesSent = new AtomicLong();
+	private final AtomicInteger active = new AtomicInteger();
+	private final AtomicInteger peakActive = new AtomicInteger();
+	private final Set<String> connections = Collections.synchronizedSet(new HashSet<String>());
+
+	/**
+	 * @param report
+	 *            the report served, uncompressed
+	 */
+	public StubReportServer(byte[] report) {
+		this.report = report;
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(report.length / 4);
+		try {
+			GZIPOutputStream out = new GZIPOutputStream(compressed);
+			out.write(report);
+			out.close();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		gzipReport = compressed.toByteArray();
+	}
+
+	/**
+	 * Delays every response by the latency plus a random share of the
+	 * jitter, in milliseconds.
+	 */
+	public StubReportServer setLatency(long latency, long jitter) {
+		this.latency = latency;
+		this.jitter = jitter;
+		return this;
+	}
+
+	/**
+	 * Limits the rate every response body is sent at; 0 for no limit.
+	 */
+	public StubReportServer setBytesPerSecond(long bytesPerSecond) {
+		this.bytesPerSecond = bytesPerSecond;
+		return this;
+	}
+
+	/**
+	 * Answers requests beyond this number in progress with 503; 0 for no
+	 * limit.
+	 */
+	public StubReportServer setMaxConcurrent(int maxConcurrent) {
+		this.maxConcurrent = maxConcurrent;
+		return this;
+	}
+
+	/**
+	 * Answers this share of the requests, between 0 and 1, with 500.
+	 */
+	public StubReportServer setErrorRate(double errorRate) {
+		this.errorRate = errorRate;
+		return this;
+	}
+
+	/**
+	 * Answers requests without these Basic-auth credentials with 401;
+	 * <tt>null</tt> accepts all requests.
+	 */
+	public StubReportServer setCredentials(String username, String password) {
+		try {
+			authorization = username == null ? null : "Basic " + new String(Base64.encodeBase64((username + ":" + password).getBytes("UTF-8")), "US-ASCII");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+		return this;
+	}
+
+	/**
+	 * Sets the key store with the server certificate for HTTPS. Without a key
+	 * store, a self-signed certificate is generated with <tt>keytool</tt>.
+	 */
+	public StubReportServer setKeyStore(File keyStore, String password) {
+		this.keyStore = keyStore;
+		this.keyStorePassword = password;
+		return this;
+	}
+
+	/**
+	 * Starts the server on a free local port.
+	 *
+	 * @param https
+	 *            whether to serve HTTPS instead of HTTP
+	 */
+	public void start(boolean https) throws Exception {
+		InetSocketAddress address = new InetSocketAddress("127.0.0.1", 0);
+		if (https) {
+			HttpsServer httpsServer = HttpsServer.create(address, 1024);
+			httpsServer.setHttpsConfigurator(new HttpsConfigurator(createSSLContext()));
+			server = httpsServer;
+		}
+		else {
+			server = HttpServer.create(address, 1024);
+		}
+		permits = maxConcurrent > 0 ? new Semaphore(maxConcurrent) : null;
+		executor = Executors.newCachedThreadPool();
+		server.setExecutor(executor);
+		server.createContext(REPORT_PATH, new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					serve(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		server.start();
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private void serve(HttpExchange exchange) throws IOException {
+
+		requests.incrementAndGet();
+		connections.add(exchange.getRemoteAddress().toString());
+		drain(exchange.getRequestBody());
+		if (authorization != null && !authorization.equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+			unauthorized.incrementAndGet();
+			exchange.getResponseHeaders().add("WWW-Authenticate", "Basic realm=\"dynaTrace\"");
+			exchange.sendResponseHeaders(401, -1);
+			return;
+		}
+		if (permits != null && !permits.tryAcquire()) {
+			throttled.incrementAndGet();
+			exchange.getResponseHeaders().add("Retry-After", "1");
+			exchange.sendResponseHeaders(503, -1);
+			return;
+		}
+		int now = active.incrementAndGet();
+		for (int peak = peakActive.get(); now > peak && !peakActive.compareAndSet(peak, now); peak = peakActive.get()) {
+			// retry until the peak is at least now
+		}
+		try {
+			sleep(latency + (jitter > 0 ? (long) (nextDouble() * jitter) : 0));
+			if (errorRate > 0 && nextDouble() < errorRate) {
+				failed.incrementAndGet();
+				exchange.sendResponseHeaders(500, -1);
+				return;
+			}
+			String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+			byte[] body = report;
+			if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+				body = gzipReport;
+				exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+			}
+			exchange.getResponseHeaders().add("Content-Type", "text/xml");
+			exchange.sendResponseHeaders(200, body.length);
+			send(exchange.getResponseBody(), body);
+			served.incrementAndGet();
+		} finally {
+			active.decrementAndGet();
+			if (permits != null) {
+				permits.release();
+			}
+		}
+	}
+
+	private void send(OutputStream out, byte[] body) throws IOException {
+		long start = System.nanoTime();
+		for (int offset = 0; offset < body.length; offset += CHUNK_SIZE) {
+			int length = Math.min(CHUNK_SIZE, body.length - offset);
+			out.write(body, offset, length);
+			bytesSent.addAndGet(length);
+			if (bytesPerSecond > 0) {
+				long due = start + (offset + length) * 1000000000L / bytesPerSecond;
+				sleep((due - System.nanoTime()) / 1000000);
+			}
+		}
+		out.flush();
+	}
+
+	private synchronized double nextDouble() {
+		return random.nextDouble();
+	}
+
+	private static void sleep(long millis) {
+		if (millis <= 0) {
+			return;
+		}
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void drain(InputStream in) throws IOException {
+		byte[] buffer = new byte[256];
+		while (in.read(buffer) >= 0) {
+			// requests are GETs, the body is empty
+		}
+	}
+
+	private SSLContext createSSLContext() throws Exception {
+		File store = keyStore;
+		if (store == null) {
+			store = File.createTempFile("stub-report-server", ".jks");
+			store.delete();
+			store.deleteOnExit();
+			Process keytool = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/keytool").getPath(), "-genkeypair",
+					"-keystore", store.getPath(), "-storetype", "JKS", "-storepass", keyStorePassword, "-keypass", keyStorePassword,
+					"-alias", "server", "-keyalg", "RSA", "-keysize", "2048", "-validity", "2", "-dname", "CN=localhost").redirectErrorStream(true).start();
+			drain(keytool.getInputStream());
+			if (keytool.waitFor() != 0) {
+				throw new IllegalStateException("keytool could not generate a certificate; set a key store instead");
+			}
+		}
+		KeyStore keys = KeyStore.getInstance("JKS");
+		InputStream in = new FileInputStream(store);
+		try {
+			keys.load(in, keyStorePassword.toCharArray());
+		} finally {
+			in.close();
+		}
+		KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keyManagers.init(keys, keyStorePassword.toCharArray());
+		SSLContext context = SSLContext.getInstance("TLS");
+		context.init(keyManagers.getKeyManagers(), null, null);
+		return context;
+	}
+
+	public long getRequests() {
+		return requests.get();
+	}
+
+	public long getServed() {
+		return served.get();
+	}
+
+	public long getUnauthorized() {
+		return unauthorized.get();
+	}
+
+	public long getThrottled() {
+		return throttled.get();
+	}
+
+	public long getFailed() {
+		return failed.get();
+	}
+
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+
+	/**
+	 * Returns the most requests that were in progress at the same time.
+	 */
+	public int getPeakActive() {
+		return peakActive.get();
+	}
+
+	/**
+	 * Returns the number of distinct client connections requests came from.
+	 */
+	public int getConnections() {
+		return connections.size();
+	}
+}
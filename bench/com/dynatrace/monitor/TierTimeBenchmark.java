@@ -0,0 +1,135 @@
+package com.dynatrace.monitor;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.dynatrace.diagnostics.pdk.MonitorEnvironment;
+import com.dynatrace.diagnostics.pdk.Status;
+
+/**
+ * Benchmarks the parse, group, aggregate and publish pipeline of
+ * {@link TierTimeMonitor} on synthetic reports against a
+ * {@link StubMonitorEnvironment}.
+ *
+ * Every combination of report size, split and parser is set up once, warmed
+ * up and then measured for a number of cycles. For each combination the
+ * throughput in cycles per second, the p50/p99 latency of one cycle and the
+ * bytes allocated per cycle (where the JVM can tell) are printed.
+ *
+ * <pre>
+ * java com.dynatrace.monitor.TierTimeBenchmark [-Dagents=10,100,1000,10000,50000]
+ *      [-Dsplits=Agent Name,Agent Group,Technology] [-Dparsers=Streaming,DOM]
+ *      [-Dwarmup=2] [-Dmeasure=3]
+ * </pre>
+ *
+ * <tt>warmup</tt> and <tt>measure</tt> are in seconds.
+ */
+public class TierTimeBenchmark {
+
+	// loggers are only weakly referenced, the level would be lost with it
+	private static final Logger pluginLogger = Logger.getLogger("com.dynatrace.monitor");
+
+	public static void main(String[] args) throws Exception {
+
+		// the per-measure logging would dominate the measurements
+		pluginLogger.setLevel(Level.WARNING);
+
+		int[] agentCounts = parseInts(System.getProperty("agents", "10,100,1000,10000,50000"));
+		String[] splits = System.getProperty("splits", "Agent Name,Agent Group,Technology").split(",");
+		String[] parsers = System.getProperty("parsers", "Streaming,DOM").split(",");
+		long warmupNanos = (long) (Double.parseDouble(System.getProperty("warmup", "2")) * 1e9);
+		long measureNanos = (long) (Double.parseDouble(System.getProperty("measure", "3")) * 1e9);
+
+		System.out.println(String.format(Locale.ROOT, "%7s %-12s %-9s %9s %8s %10s %10s %12s %8s",
+				"agents", "split", "parser", "KB", "cycles", "cycles/s", "p50 ms", "p99 ms", "MB/cycle"));
+		for (int agents : agentCounts) {
+			byte[] report = ReportGenerator.forAgents(agents).generate();
+			for (String split : splits) {
+				for (String parser : parsers) {
+					run(agents, report, split.trim(), parser.trim(), warmupNanos, measureNanos);
+				}
+			}
+		}
+	}
+
+	private static void run(int agents, byte[] report, String split, String parser, long warmupNanos, long measureNanos) throws Exception {
+
+		StubMonitorEnvironment stub = new StubMonitorEnvironment().set("splitChoice", split).set("parserMode", parser);
+		MonitorEnvironment env = stub.getEnvironment();
+		TierTimeMonitor monitor = new TierTimeMonitor();
+		monitor.setup(env);
+		try {
+			long end = System.nanoTime() + warmupNanos;
+			while (System.nanoTime() < end) {
+				cycle(monitor, env, report);
+			}
+
+			long[] latencies = new long[1024];
+			int cycles = 0;
+			long allocatedBefore = allocatedBytes();
+			long start = System.nanoTime();
+			end = start + measureNanos;
+			long now = start;
+			while (now < end || cycles < 5) {
+				cycle(monitor, env, report);
+				long finished = System.nanoTime();
+				if (cycles == latencies.length) {
+					latencies = Arrays.copyOf(latencies, cycles * 2);
+				}
+				latencies[cycles++] = finished - now;
+				now = finished;
+			}
+			long allocated = allocatedBytes() - allocatedBefore;
+
+			Arrays.sort(latencies, 0, cycles);
+			System.out.println(String.format(Locale.ROOT, "%7d %-12s %-9s %9d %8d %10.1f %10.3f %12.3f %8s",
+					agents, split, parser, report.length / 1024, cycles, cycles / ((now - start) / 1e9),
+					percentile(latencies, cycles, 0.50) / 1e6, percentile(latencies, cycles, 0.99) / 1e6,
+					allocatedBefore < 0 ? "n/a" : String.format(Locale.ROOT, "%.2f", allocated / (double) cycles / (1 << 20))));
+		} finally {
+			monitor.teardown(env);
+		}
+		if (stub.getValuesWritten() == 0 || Double.isNaN(stub.getChecksum())) {
+			System.out.println("        warning: no values were published");
+		}
+	}
+
+	private static void cycle(TierTimeMonitor monitor, MonitorEnvironment env, byte[] report) throws Exception {
+		if (!monitor.processReport(env, new ByteArrayInputStream(report)).getStatusCode().equals(Status.StatusCode.Success)) {
+			throw new IllegalStateException("cycle failed");
+		}
+	}
+
+	private static long percentile(long[] sorted, int count, double percentile) {
+		return sorted[Math.min(count - 1, (int) Math.ceil(percentile * count) - 1)];
+	}
+
+	/**
+	 * Returns the bytes allocated by the current thread, or -1 if the JVM
+	 * does not expose <tt>com.sun.management.ThreadMXBean</tt>.
+	 */
+	private static long allocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		try {
+			Method method = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", long.class);
+			return ((Long) method.invoke(threads, Thread.currentThread().getId())).longValue();
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+	private static int[] parseInts(String values) {
+		String[] parts = values.split(",");
+		int[] parsed = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			parsed[i] = Integer.parseInt(parts[i].trim());
+		}
+		return parsed;
+	}
+}
@@ -0,0 +1,144 @@
+package com.dynatrace.monitor;
+
+import java.util.Random;
+
+/**
+ * Decides which executions of a monitor fetch reports, so a degraded server
+ * is polled less often.
+ *
+ * The latency and the outcome of every fetch are tracked as exponentially
+ * weighted moving averages. A failed or slow fetch raises the backoff level
+ * by one, and the next 2^(level-1) to 2^level-1 executions, chosen at random
+ * so that collectors do not retry in lockstep and capped at the configured
+ * maximum, skip their fetch. Every
+ * healthy fetch lowers the level by one again, but only once the average
+ * error rate and latency have come back down, so the polling rate recovers
+ * step by step instead of returning to full rate at the first success.
+ *
+ * Independently of the backoff, an execution that follows the previous fetch
+ * closer than the minimum interval is skipped, e.g. in incremental mode when
+ * the next slot has not been completed yet.
+ *
+ * Not thread-safe; executions of a monitor do not overlap.
+ */
+public class AdaptivePoller {
+
+	/** Weight of the latest fetch in the moving averages. */
+	private static final double ALPHA = 0.3;
+	/** Average error rate above which the backoff is not lowered. */
+	private static final double RECOVERY_ERROR_RATE = 0.25;
+	/** Share of the minimum interval tolerated as schedule jitter. */
+	private static final double INTERVAL_TOLERANCE = 0.9;
+
+	private final double slowLatency;
+	private final int maxSkipped;
+	private final int maxLevel;
+	private final long minInterval;
+	private final Random random = new Random();
+
+	private double latency = Double.NaN;
+	private double errorRate;
+	private int level;
+	private int skipRemaining;
+	private long lastFetchAt;
+
+	/**
+	 * @param slowLatency
+	 *            milliseconds above which a fetch counts as slow
+	 * @param maxSkipped
+	 *            most executions skipped in a row by the backoff
+	 * @param minInterval
+	 *            milliseconds that must pass between the starts of two
+	 *            fetches; 0 for no minimum
+	 */
+	public AdaptivePoller(double slowLatency, int maxSkipped, long minInterval) {
+		this.slowLatency = slowLatency;
+		this.maxSkipped = Math.max(1, maxSkipped);
+		// at level n at least 2^(n-1) executions are skipped
+		this.maxLevel = 32 - Integer.numberOfLeadingZeros(Math.max(1, maxSkipped));
+		this.minInterval = minInterval;
+	}
+
+	/**
+	 * Tells whether the current execution fetches, and counts it as skipped
+	 * otherwise.
+	 *
+	 * @param now
+	 *            the current time in milliseconds
+	 */
+	public boolean shouldFetch(long now) {
+		if (skipRemaining > 0) {
+			skipRemaining--;
+			return false;
+		}
+		if (minInterval > 0 && lastFetchAt > 0 && now - lastFetchAt < minInterval * INTERVAL_TOLERANCE) {
+			return false;
+		}
+		lastFetchAt = now;
+		return true;
+	}
+
+	/**
+	 * Records the outcome of a fetch and sets the executions skipped next.
+	 *
+	 * @param failed
+	 *            whether the fetch failed or was only partially published
+	 * @param latencyMillis
+	 *            the time the fetch took
+	 */
+	public void fetched(boolean failed, double latencyMillis) {
+
+		latency = Double.isNaN(latency) ? latencyMillis : ALPHA * latencyMillis + (1 - ALPHA) * latency;
+		errorRate = ALPHA * (failed ? 1 : 0) + (1 - ALPHA) * errorRate;
+
+		if (failed || latencyMillis > slowLatency) {
+			level = Math.min(maxLevel, level + 1);
+		}
+		else if (level > 0 && errorRate < RECOVERY_ERROR_RATE && latency < slowLatency) {
+			level--;
+		}
+
+		if (level == 0) {
+			skipRemaining = 0;
+		}
+		else {
+			int base = 1 << (level - 1);
+			skipRemaining = Math.min(maxSkipped, base + random.nextInt(base));
+		}
+	}
+
+	/**
+	 * Returns the backoff level, 0 when polling at full rate.
+	 */
+	public int getLevel() {
+		return level;
+	}
+
+	/**
+	 * Returns the number of executions that skip their fetch before the next
+	 * one fetches.
+	 */
+	public int getSkipRemaining() {
+		return skipRemaining;
+	}
+
+	/**
+	 * Returns the average fetch latency in milliseconds, or <tt>NaN</tt>
+	 * before the first fetch.
+	 */
+	public double getLatency() {
+		return latency;
+	}
+
+	/**
+	 * Returns the average share of failed fetches, between 0 and 1.
+	 */
+	public double getErrorRate() {
+		return errorRate;
+	}
+
+	@Override
+	public String toString() {
+		return "AdaptivePoller[level=" + level + ", skip=" + skipRemaining + ", latency=" + latency + "ms, errorRate=" + errorRate + "]";
+	}
+}
@@ -0,0 +1,221 @@
+package com.dynatrace.monitor;
+
+import java.util.Arrays;
+
+/**
+ * Caller to callee call counts between the nodes of a transaction flow.
+ *
+ * Nodes are dense integer IDs: agent indexes of a
+ * {@link TransactionFlowReport}, or tier indexes of a {@link TierSnapshot}
+ * after {@link #rollUp(int[], int)}. Edges are kept in primitive arrays,
+ * sorted by caller and callee, with parallel links between the same nodes
+ * merged into one edge.
+ *
+ * Alongside the edges, every node keeps the sum of the calls it received,
+ * including calls from callers that are not nodes of the graph.
+ */
+public class CallGraph {
+
+	private final int nodeCount;
+	private final int[] callers;
+	private final int[] callees;
+	private final double[] counts;
+	private final int edgeCount;
+	private final double[] incomingCounts;
+	private final boolean[] called;
+
+	private CallGraph(int nodeCount, int[] callers, int[] callees, double[] counts, int edgeCount, double[] incomingCounts, boolean[] called) {
+		this.nodeCount = nodeCount;
+		this.callers = callers;
+		this.callees = callees;
+		this.counts = counts;
+		this.edgeCount = edgeCount;
+		this.incomingCounts = incomingCounts;
+		this.called = called;
+	}
+
+	/**
+	 * Builds the agent level graph of a report in one pass over its links.
+	 * Links whose count is missing or whose callee is not an agent of the
+	 * report are left out; links from a caller that is not an agent of the
+	 * report only count as incoming calls of the callee.
+	 */
+	public static CallGraph build(TransactionFlowReport report) {
+
+		int agentCount = report.getAgentCount();
+		IdIndex agentIndex = new IdIndex(agentCount);
+		for (int i = 0; i < agentCount; i++) {
+			int id = report.getSplitId(i, SplitOption.NAME);
+			if (id >= 0) {
+				agentIndex.put(id, i);
+			}
+		}
+
+		int linkCount = report.getLinkCount();
+		int[] callers = new int[linkCount];
+		int[] callees = new int[linkCount];
+		double[] counts = new double[linkCount];
+		double[] incomingCounts = new double[agentCount];
+		boolean[] called = new boolean[agentCount];
+		int n = 0;
+		for (int i = 0; i < linkCount; i++) {
+			double count = report.getRemotingCount(i);
+			int callee = report.getLinkToId(i) < 0 ? -1 : agentIndex.get(report.getLinkToId(i));
+			if (callee < 0 || Double.isNaN(count)) {
+				continue;
+			}
+			incomingCounts[callee] += count;
+			called[callee] = true;
+			int caller = report.getLinkFromId(i) < 0 ? -1 : agentIndex.get(report.getLinkFromId(i));
+			if (caller < 0) {
+				continue;
+			}
+			callers[n] = caller;
+			callees[n] = callee;
+			counts[n] = count;
+			n++;
+		}
+		return of(agentCount, callers, callees, counts, n, incomingCounts, called);
+	}
+
+	/**
+	 * Builds a graph from unsorted edges, merging parallel ones.
+	 *
+	 * @param nodeCount
+	 *            the number of nodes; all node IDs are below it
+	 * @param length
+	 *            the number of edges in the arrays
+	 */
+	public static CallGraph of(int nodeCount, int[] callers, int[] callees, double[] counts, int length) {
+		double[] incomingCounts = new double[nodeCount];
+		boolean[] called = new boolean[nodeCount];
+		for (int i = 0; i < length; i++) {
+			incomingCounts[callees[i]] += counts[i];
+			called[callees[i]] = true;
+		}
+		return of(nodeCount, callers, callees, counts, length, incomingCounts, called);
+	}
+
+	private static CallGraph of(int nodeCount, int[] callers, int[] callees, double[] counts, int length, double[] incomingCounts, boolean[] called) {
+
+		if (length == 0) {
+			return new CallGraph(nodeCount, new int[0], new int[0], new double[0], 0, incomingCounts, called);
+		}
+		// sort edge positions by (caller, callee), packed into one long with the position
+		int positionBits = 64 - Long.numberOfLeadingZeros(Math.max(1, length - 1));
+		int nodeBits = (64 - positionBits) / 2;
+		if (nodeCount > (1L << nodeBits)) {
+			throw new IllegalArgumentException("Too many nodes for " + length + " edges: " + nodeCount);
+		}
+		long[] keys = new long[length];
+		for (int i = 0; i < length; i++) {
+			keys[i] = ((((long) callers[i] << nodeBits) | callees[i]) << positionBits) | i;
+		}
+		Arrays.sort(keys);
+
+		int[] mergedCallers = new int[length];
+		int[] mergedCallees = new int[length];
+		double[] mergedCounts = new double[length];
+		int edges = 0;
+		long positionMask = (1L << positionBits) - 1;
+		long previous = -1;
+		for (long key : keys) {
+			long pair = key >>> positionBits;
+			int position = (int) (key & positionMask);
+			if (pair != previous) {
+				mergedCallers[edges] = callers[position];
+				mergedCallees[edges] = callees[position];
+				edges++;
+				previous = pair;
+			}
+			mergedCounts[edges - 1] += counts[position];
+		}
+		return new CallGraph(nodeCount, mergedCallers, mergedCallees, mergedCounts, edges, incomingCounts, called);
+	}
+
+	/**
+	 * Maps every node to a group, e.g. every agent to its tier, and merges
+	 * the edges between the same groups. Edges of nodes mapped to a negative
+	 * group are left out; calls within a group are kept as self edges. The
+	 * incoming calls of a group are the sum over its nodes.
+	 *
+	 * @param nodeGroups
+	 *            the group of every node
+	 * @param groupCount
+	 *            the number of groups
+	 */
+	public CallGraph rollUp(int[] nodeGroups, int groupCount) {
+
+		double[] groupIncoming = new double[groupCount];
+		boolean[] groupCalled = new boolean[groupCount];
+		for (int node = 0; node < nodeCount; node++) {
+			int group = nodeGroups[node];
+			if (group >= 0) {
+				groupIncoming[group] += incomingCounts[node];
+				groupCalled[group] |= called[node];
+			}
+		}
+
+		int[] groupCallers = new int[edgeCount];
+		int[] groupCallees = new int[edgeCount];
+		double[] groupCounts = new double[edgeCount];
+		int n = 0;
+		for (int edge = 0; edge < edgeCount; edge++) {
+			int caller = nodeGroups[callers[edge]];
+			int callee = nodeGroups[callees[edge]];
+			if (caller < 0 || callee < 0) {
+				continue;
+			}
+			groupCallers[n] = caller;
+			groupCallees[n] = callee;
+			groupCounts[n] = counts[edge];
+			n++;
+		}
+		return of(groupCount, groupCallers, groupCallees, groupCounts, n, groupIncoming, groupCalled);
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	public int getEdgeCount() {
+		return edgeCount;
+	}
+
+	public int getCaller(int edge) {
+		return callers[edge];
+	}
+
+	public int getCallee(int edge) {
+		return callees[edge];
+	}
+
+	public double getCount(int edge) {
+		return counts[edge];
+	}
+
+	/**
+	 * Returns the sum of the calls a node received.
+	 */
+	public double getIncomingCount(int node) {
+		return incomingCounts[node];
+	}
+
+	/**
+	 * Returns whether a node received calls, even if their count is 0.
+	 */
+	public boolean isCalled(int node) {
+		return called[node];
+	}
+
+	/**
+	 * Returns the sum of the calls made by every node to nodes of the graph.
+	 */
+	public double[] getOutgoingCounts() {
+		double[] outgoing = new double[nodeCount];
+		for (int edge = 0; edge < edgeCount; edge++) {
+			outgoing[callers[edge]] += counts[edge];
+		}
+		return outgoing;
+	}
+}
@@ -0,0 +1,67 @@
+package com.dynatrace.monitor;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream that counts the bytes read through it and the time spent
+ * waiting for them.
+ */
+public class CountingInputStream extends FilterInputStream {
+
+	private long count;
+	private long readNanos;
+
+	public CountingInputStream(InputStream in) {
+		super(in);
+	}
+
+	@Override
+	public int read() throws IOException {
+		long start = System.nanoTime();
+		int b = super.read();
+		readNanos += System.nanoTime() - start;
+		if (b >= 0) {
+			count++;
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		long start = System.nanoTime();
+		int n = super.read(b, off, len);
+		readNanos += System.nanoTime() - start;
+		if (n > 0) {
+			count += n;
+		}
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = super.skip(n);
+		count += skipped;
+		return skipped;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	/**
+	 * Returns the number of bytes read so far.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the time spent in reads so far, in nanoseconds.
+	 */
+	public long getReadNanos() {
+		return readNanos;
+	}
+}
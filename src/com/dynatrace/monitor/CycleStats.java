@@ -0,0 +1,170 @@
+package com.dynatrace.monitor;
+
+/**
+ * Cost of one monitor execution, published as the Tier Monitor Health
+ * measures.
+ *
+ * Fetch and parse figures are summed over all reports loaded in the
+ * execution; a report shared by another monitor is not counted again. With
+ * background refresh, a report is accounted to the execution that first
+ * publishes it.
+ * Fetches of additional targets run concurrently, so the methods are
+ * synchronized.
+ */
+public class CycleStats {
+
+	private final long startedAt = System.nanoTime();
+	private long connectNanos;
+	private long firstByteNanos;
+	private long downloadBytes;
+	private long downloadNanos;
+	private long parseNanos;
+	private int agents;
+	private int tiers;
+	private int measuresWritten;
+	private int exportDropped;
+	private long snapshotAge;
+	private boolean stale;
+
+	/**
+	 * Adds a loaded report.
+	 *
+	 * @param report
+	 *            the fully read response body
+	 * @param readNanos
+	 *            the time spent reading and parsing the body
+	 */
+	public synchronized void addFetch(ReportStream report, long readNanos) {
+		connectNanos += report.getConnectNanos();
+		firstByteNanos += report.getFirstByteNanos();
+		downloadBytes += report.getTransferredBytes();
+		downloadNanos += report.getTransferNanos();
+		parseNanos += Math.max(0, readNanos - report.getTransferNanos());
+	}
+
+	/**
+	 * Adds the time spent parsing a report that was not downloaded.
+	 */
+	public synchronized void addParse(long readNanos) {
+		parseNanos += readNanos;
+	}
+
+	/**
+	 * Adds a published snapshot.
+	 */
+	public synchronized void addSnapshot(TierSnapshot snapshot) {
+		agents += snapshot.getAgentCount();
+		tiers += snapshot.getTierCount();
+	}
+
+	public synchronized void addMeasuresWritten(int count) {
+		measuresWritten += count;
+	}
+
+	/**
+	 * Adds values the export sink dropped, because its queue was full or
+	 * they could not be written.
+	 */
+	public synchronized void addExportDropped(int count) {
+		exportDropped += count;
+	}
+
+	/**
+	 * Adds the fetch and parse figures of a report loaded in the background.
+	 */
+	public void addLoad(CycleStats load) {
+		long connect, firstByte, bytes, download, parse;
+		synchronized (load) {
+			connect = load.connectNanos;
+			firstByte = load.firstByteNanos;
+			bytes = load.downloadBytes;
+			download = load.downloadNanos;
+			parse = load.parseNanos;
+		}
+		synchronized (this) {
+			connectNanos += connect;
+			firstByteNanos += firstByte;
+			downloadBytes += bytes;
+			downloadNanos += download;
+			parseNanos += parse;
+		}
+	}
+
+	/**
+	 * Records the age of a published snapshot; the oldest one is kept.
+	 *
+	 * @param age
+	 *            the age in milliseconds
+	 * @param stale
+	 *            whether the snapshot is older than it should be
+	 */
+	public synchronized void addSnapshotAge(long age, boolean stale) {
+		snapshotAge = Math.max(snapshotAge, age);
+		this.stale |= stale;
+	}
+
+	public synchronized double getConnectTime() {
+		return toMillis(connectNanos);
+	}
+
+	public synchronized double getFirstByteTime() {
+		return toMillis(firstByteNanos);
+	}
+
+	public synchronized long getDownloadBytes() {
+		return downloadBytes;
+	}
+
+	public synchronized double getDownloadTime() {
+		return toMillis(downloadNanos);
+	}
+
+	public synchronized double getParseTime() {
+		return toMillis(parseNanos);
+	}
+
+	public synchronized int getAgents() {
+		return agents;
+	}
+
+	public synchronized int getTiers() {
+		return tiers;
+	}
+
+	public synchronized int getMeasuresWritten() {
+		return measuresWritten;
+	}
+
+	public synchronized int getExportDropped() {
+		return exportDropped;
+	}
+
+	/**
+	 * Returns the age of the oldest snapshot of the execution in
+	 * milliseconds, 0 if all reports were fetched by the execution itself.
+	 */
+	public synchronized long getSnapshotAge() {
+		return snapshotAge;
+	}
+
+	public synchronized boolean isStale() {
+		return stale;
+	}
+
+	/**
+	 * Returns the time since the execution started, in milliseconds.
+	 */
+	public double getCycleTime() {
+		return toMillis(System.nanoTime() - startedAt);
+	}
+
+	private static double toMillis(long nanos) {
+		return nanos / 1e6;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "connect=" + getConnectTime() + "ms, firstByte=" + getFirstByteTime() + "ms, download=" + downloadBytes + "B/" + getDownloadTime()
+				+ "ms, parse=" + getParseTime() + "ms, agents=" + agents + ", tiers=" + tiers + ", measures=" + measuresWritten + ", exportDropped=" + exportDropped + ", age=" + snapshotAge + "ms" + (stale ? " (stale)" : "") + ", cycle=" + getCycleTime() + "ms";
+	}
+}
@@ -0,0 +1,60 @@
+package com.dynatrace.monitor;
+
+import java.util.concurrent.CancellationException;
+
+import com.dynatrace.diagnostics.pdk.TaskEnvironment;
+
+/**
+ * Point in time by which a monitor execution has to be finished.
+ *
+ * A deadline expires when its time is up or when the plugin environment
+ * reports the execution as stopped, whichever comes first. Long running
+ * stages check it between units of work and give up with a
+ * {@link CancellationException}; blocking reads are bounded by
+ * {@link #getRemaining()}.
+ */
+public class Deadline {
+
+	private final TaskEnvironment env;
+	private final long expiresAt;
+
+	/**
+	 * @param env
+	 *            the environment of the execution, or <tt>null</tt> if only
+	 *            the time limit applies
+	 * @param timeout
+	 *            the time limit in milliseconds from now
+	 */
+	public Deadline(TaskEnvironment env, long timeout) {
+		this.env = env;
+		this.expiresAt = System.currentTimeMillis() + timeout;
+	}
+
+	/**
+	 * Returns whether the time is up or the execution was stopped.
+	 */
+	public boolean isExpired() {
+		return System.currentTimeMillis() >= expiresAt || (env != null && env.isStopped());
+	}
+
+	/**
+	 * Returns the time left in milliseconds, 0 if the deadline expired.
+	 */
+	public long getRemaining() {
+		return isExpired() ? 0 : Math.max(0, expiresAt - System.currentTimeMillis());
+	}
+
+	/**
+	 * Gives up if the deadline expired.
+	 *
+	 * @param stage
+	 *            what was being done, for the exception message
+	 * @throws CancellationException
+	 *             if the deadline expired
+	 */
+	public void check(String stage) {
+		if (isExpired()) {
+			throw new CancellationException("Execution deadline exceeded while " + stage);
+		}
+	}
+}
@@ -0,0 +1,312 @@
+package com.dynatrace.monitor;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@link MetricSink} writing the values to a local, size-rotated file in the
+ * InfluxDB line protocol, one value per line:
+ *
+ * <pre>
+ * tiertime,dimension=group,measure=Response\ Time,tier=Frontend value=15.5 1500883200000000000
+ * </pre>
+ *
+ * Offered values are put on a bounded, lock-free queue; a value offered
+ * while the queue is full is dropped. A background thread takes the values
+ * off the queue and writes them in batches: the file is flushed when a
+ * batch is full or the flush interval has passed since the oldest unflushed
+ * value. When the file would exceed the file size, it is renamed to
+ * <tt>&lt;file&gt;.1</tt>, older files are shifted up to the number of files
+ * kept, and a new file is started; if the file cannot be renamed, it is
+ * truncated instead. The file size counts the UTF-8 encoded bytes. Values
+ * dropped because the queue was full, because they are not finite or
+ * because they could not be written are counted. A failing file or rotation
+ * is logged once, until it works again.
+ */
+public class FileMetricSink implements MetricSink {
+
+	private static final Logger log = Logger.getLogger(FileMetricSink.class.getName());
+
+	/** Measurement name of every line. */
+	public static final String MEASUREMENT = "tiertime";
+
+	private static final int BATCH_SIZE = 512;
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final File file;
+	private final long fileSize;
+	private final int files;
+	private final int capacity;
+	private final long flushIntervalNanos;
+	private final ConcurrentLinkedQueue<Record> queue = new ConcurrentLinkedQueue<Record>();
+	private final AtomicInteger queued = new AtomicInteger();
+	private final AtomicLong dropped = new AtomicLong();
+	private final Thread writerThread;
+	private volatile boolean closed;
+
+	private Writer out;
+	private long written;
+	private boolean failing;
+	private boolean rotateFailing;
+
+	private static final class Record {
+		final long timestamp;
+		final String dimension;
+		final String measure;
+		final String split;
+		final double value;
+
+		Record(long timestamp, String dimension, String measure, String split, double value) {
+			this.timestamp = timestamp;
+			this.dimension = dimension;
+			this.measure = measure;
+			this.split = split;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Creates the sink and starts its writer thread.
+	 *
+	 * @param file
+	 *            the file written to; its directory is created if missing
+	 * @param fileSize
+	 *            bytes after which the file is rotated
+	 * @param files
+	 *            rotated files kept besides the current one
+	 * @param capacity
+	 *            values queued at most
+	 * @param flushInterval
+	 *            milliseconds a written value waits at most for the flush
+	 */
+	public FileMetricSink(File file, long fileSize, int files, int capacity, long flushInterval) {
+		this.file = file;
+		this.fileSize = fileSize;
+		this.files = files;
+		this.capacity = capacity;
+		this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushInterval));
+		writerThread = new Thread(new Runnable() {
+			public void run() {
+				writeLoop();
+			}
+		}, "TierTimeMonitor export " + file.getName());
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	public boolean offer(long timestamp, String dimension, String measure, String split, double value) {
+		if (closed) {
+			dropped.incrementAndGet();
+			return false;
+		}
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			// not representable in the line protocol
+			dropped.incrementAndGet();
+			return false;
+		}
+		int size = queued.incrementAndGet();
+		if (size > capacity) {
+			queued.decrementAndGet();
+			dropped.incrementAndGet();
+			return false;
+		}
+		queue.offer(new Record(timestamp, dimension, measure, split, value));
+		if (size == BATCH_SIZE) {
+			LockSupport.unpark(writerThread);
+		}
+		return true;
+	}
+
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Stops the writer thread after it wrote the values offered so far.
+	 */
+	public void close() {
+		closed = true;
+		LockSupport.unpark(writerThread);
+		try {
+			writerThread.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void writeLoop() {
+
+		StringBuilder line = new StringBuilder(128);
+		int unflushed = 0;
+		long oldestUnflushed = 0;
+		while (true) {
+			boolean stopping = closed;
+			Record record;
+			while ((record = queue.poll()) != null) {
+				queued.decrementAndGet();
+				if (unflushed == 0) {
+					oldestUnflushed = System.nanoTime();
+				}
+				try {
+					write(format(record, line));
+					unflushed++;
+					failing = false;
+				} catch (IOException e) {
+					dropped.incrementAndGet();
+					if (!failing) {
+						failing = true;
+						log.warning("Exporting to " + file + " failed, dropping values until it works again: " + e);
+					}
+					closeFile();
+				}
+				if (unflushed >= BATCH_SIZE) {
+					unflushed = flush();
+				}
+			}
+			if (unflushed > 0 && (stopping || System.nanoTime() - oldestUnflushed >= flushIntervalNanos)) {
+				unflushed = flush();
+			}
+			if (stopping) {
+				closeFile();
+				return;
+			}
+			LockSupport.parkNanos(this, unflushed > 0 ? Math.max(0, oldestUnflushed + flushIntervalNanos - System.nanoTime()) : flushIntervalNanos);
+		}
+	}
+
+	private void write(CharSequence line) throws IOException {
+		boolean truncate = false;
+		int length = encodedLength(line);
+		if (out != null && written + length > fileSize) {
+			closeFile();
+			truncate = !rotate();
+		}
+		if (out == null) {
+			File directory = file.getAbsoluteFile().getParentFile();
+			if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException("Cannot create " + directory);
+			}
+			// a file that could not be rotated would be over the size at once
+			truncate |= file.length() >= fileSize;
+			written = truncate ? 0 : file.length();
+			out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, !truncate), "UTF-8"), BUFFER_SIZE);
+		}
+		out.append(line);
+		written += length;
+	}
+
+	/**
+	 * Returns the number of bytes the line takes in UTF-8, to compare with
+	 * the file length; a lone surrogate is encoded as a single '?'.
+	 */
+	private static int encodedLength(CharSequence line) {
+		int length = 0;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c < 0x80) {
+				length++;
+			}
+			else if (c < 0x800) {
+				length += 2;
+			}
+			else if (Character.isHighSurrogate(c) && i + 1 < line.length() && Character.isLowSurrogate(line.charAt(i + 1))) {
+				length += 4;
+				i++;
+			}
+			else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+				length++;
+			}
+			else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	private int flush() {
+		if (out != null) {
+			try {
+				out.flush();
+			} catch (IOException e) {
+				log.warning("Flushing " + file + " failed: " + e);
+				closeFile();
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Moves the file out of the way.
+	 *
+	 * @return <tt>false</tt> if the file is still there and has to be
+	 *         truncated
+	 */
+	private boolean rotate() {
+		new File(file.getPath() + "." + files).delete();
+		for (int i = files - 1; i >= 1; i--) {
+			new File(file.getPath() + "." + i).renameTo(new File(file.getPath() + "." + (i + 1)));
+		}
+		if (files > 0 ? !file.renameTo(new File(file.getPath() + ".1")) : !file.delete()) {
+			if (!rotateFailing) {
+				rotateFailing = true;
+				log.warning("Cannot rotate " + file + ", truncating it until it can be rotated again");
+			}
+			return false;
+		}
+		rotateFailing = false;
+		if (log.isLoggable(Level.FINE)) {
+			log.fine("Rotated " + file);
+		}
+		return true;
+	}
+
+	private void closeFile() {
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				log.warning("Closing " + file + " failed: " + e);
+			}
+			out = null;
+		}
+	}
+
+	private static StringBuilder format(Record record, StringBuilder line) {
+		line.setLength(0);
+		line.append(MEASUREMENT);
+		appendTag(line, "dimension", record.dimension);
+		appendTag(line, "measure", record.measure);
+		appendTag(line, "tier", record.split);
+		line.append(" value=").append(record.value).append(' ').append(record.timestamp).append("000000\n");
+		return line;
+	}
+
+	private static void appendTag(StringBuilder line, String key, String value) {
+		if (value == null || value.length() == 0) {
+			return;
+		}
+		line.append(',').append(key).append('=');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == ',' || c == '=' || c == ' ') {
+				line.append('\\');
+			}
+			else if (c == '\n' || c == '\r') {
+				c = ' ';
+				line.append('\\');
+			}
+			line.append(c);
+		}
+	}
+}
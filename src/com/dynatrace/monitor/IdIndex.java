@@ -0,0 +1,62 @@
+package com.dynatrace.monitor;
+
+import java.util.Arrays;
+
+/**
+ * Map from non-negative IDs to non-negative indexes in open-addressing
+ * primitive arrays, used to group report entries by the IDs of a
+ * {@link NameDictionary} without boxing. Sized once for the expected number
+ * of keys; never resized beyond that.
+ */
+final class IdIndex {
+
+	private static final int EMPTY = -1;
+
+	private final int[] keys;
+	private final int[] values;
+	private final int mask;
+
+	/**
+	 * @param expectedKeys
+	 *            the maximum number of keys put
+	 */
+	IdIndex(int expectedKeys) {
+		int capacity = Integer.highestOneBit(Math.max(4, expectedKeys) * 2 - 1) << 1;
+		keys = new int[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+		Arrays.fill(keys, EMPTY);
+	}
+
+	/**
+	 * Returns the index of an ID, or -1 if it was not put.
+	 */
+	int get(int id) {
+		for (int slot = hash(id) & mask;; slot = (slot + 1) & mask) {
+			int key = keys[slot];
+			if (key == id) {
+				return values[slot];
+			}
+			if (key == EMPTY) {
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * Sets the index of an ID, replacing the index put before.
+	 */
+	void put(int id, int index) {
+		int slot = hash(id) & mask;
+		while (keys[slot] != EMPTY && keys[slot] != id) {
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = id;
+		values[slot] = index;
+	}
+
+	private static int hash(int id) {
+		// odd multiplier: a permutation of the low bits, so sequential IDs do not collide
+		return id * 0x9E3779B9;
+	}
+}
@@ -0,0 +1,235 @@
+package com.dynatrace.monitor;
+
+/**
+ * Mergeable histogram of times in milliseconds with logarithmic buckets.
+ *
+ * All histograms share one fixed bucket layout: bucket 0 holds values below
+ * {@link #MIN_VALUE}, every further bucket is {@link #GROWTH} times wider
+ * than the previous one, and the last bucket also holds everything above
+ * {@link #MAX_VALUE}. Percentiles are therefore accurate to about half a
+ * bucket, i.e. 5% of the value, and a histogram never holds more than
+ * {@link #BUCKETS} counters however many values are added. Only the range
+ * of buckets that received values is allocated. The smallest and largest
+ * value are kept exactly, and percentiles never fall outside of them.
+ *
+ * Counts are doubles so that histograms can be weighted, scaled and merged.
+ * Not thread-safe.
+ */
+public class LogHistogram {
+
+	/** Upper bound of the first bucket, in milliseconds. */
+	public static final double MIN_VALUE = 0.01;
+	/** Lower bound of the last bucket, in milliseconds. */
+	public static final double MAX_VALUE = 1e7;
+	/** Ratio between the bounds of a bucket. */
+	public static final double GROWTH = 1.1;
+	/** Number of buckets of every histogram. */
+	public static final int BUCKETS = 2 + (int) Math.ceil(Math.log(MAX_VALUE / MIN_VALUE) / Math.log(GROWTH));
+
+	private static final double LOG_GROWTH = Math.log(GROWTH);
+
+	private int offset;
+	private double[] counts;
+	private double total;
+	private double min = Double.NaN;
+	private double max = Double.NaN;
+
+	/**
+	 * Adds a single value.
+	 *
+	 * @param weight
+	 *            how often the value occurred
+	 */
+	public void add(double value, double weight) {
+		if (Double.isNaN(value) || !(weight > 0)) {
+			return;
+		}
+		int bucket = bucketOf(value);
+		grow(bucket, bucket);
+		counts[bucket - offset] += weight;
+		total += weight;
+		extend(value, value);
+	}
+
+	/**
+	 * Adds values known only by their minimum, average and maximum, e.g. the
+	 * response times of one agent. They are assumed to be spread evenly
+	 * between the minimum and the average and between the average and the
+	 * maximum, with the shares of the two ranges chosen so that the average
+	 * is preserved. Missing bounds fall back to the average.
+	 *
+	 * @param weight
+	 *            the number of values, e.g. the transaction count of the agent
+	 */
+	public void add(double min, double avg, double max, double weight) {
+		if (Double.isNaN(avg) || !(weight > 0)) {
+			return;
+		}
+		if (Double.isNaN(min) || min > avg) {
+			min = avg;
+		}
+		if (Double.isNaN(max) || max < avg) {
+			max = avg;
+		}
+		if (max <= min) {
+			add(avg, weight);
+			return;
+		}
+		double lowerShare = (max - avg) / (max - min);
+		addUniform(min, avg, weight * lowerShare);
+		addUniform(avg, max, weight * (1 - lowerShare));
+	}
+
+	private void addUniform(double from, double to, double weight) {
+		if (!(weight > 0)) {
+			return;
+		}
+		if (to <= from) {
+			add(from, weight);
+			return;
+		}
+		int first = bucketOf(from);
+		int last = bucketOf(to);
+		grow(first, last);
+		double width = to - from;
+		double assigned = 0;
+		for (int bucket = first; bucket < last; bucket++) {
+			double overlap = Math.min(to, upperBound(bucket)) - Math.max(from, lowerBound(bucket));
+			double share = weight * Math.max(0, overlap) / width;
+			counts[bucket - offset] += share;
+			assigned += share;
+		}
+		// the rest, so rounding at the bucket bounds never loses weight
+		counts[last - offset] += Math.max(0, weight - assigned);
+		total += weight;
+		extend(from, to);
+	}
+
+	private void extend(double from, double to) {
+		min = Double.isNaN(min) ? from : Math.min(min, from);
+		max = Double.isNaN(max) ? to : Math.max(max, to);
+	}
+
+	/**
+	 * Adds all values of another histogram.
+	 */
+	public void merge(LogHistogram other) {
+		if (other.counts == null) {
+			return;
+		}
+		grow(other.offset, other.offset + other.counts.length - 1);
+		for (int i = 0; i < other.counts.length; i++) {
+			counts[other.offset + i - offset] += other.counts[i];
+		}
+		total += other.total;
+		extend(other.min, other.max);
+	}
+
+	/**
+	 * Multiplies all counts by a factor, e.g. to let older values fade out.
+	 */
+	public void scale(double factor) {
+		if (counts == null) {
+			return;
+		}
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] *= factor;
+		}
+		total *= factor;
+	}
+
+	/**
+	 * Returns the sum of the weights of all values.
+	 */
+	public double getTotal() {
+		return total;
+	}
+
+	/**
+	 * Returns the smallest value added, or <tt>NaN</tt> if the histogram is
+	 * empty.
+	 */
+	public double getMin() {
+		return min;
+	}
+
+	/**
+	 * Returns the largest value added, or <tt>NaN</tt> if the histogram is
+	 * empty.
+	 */
+	public double getMax() {
+		return max;
+	}
+
+	/**
+	 * Returns the value below which the given share of the values lies,
+	 * interpolated within its bucket, or <tt>NaN</tt> if the histogram is
+	 * empty.
+	 *
+	 * @param percentile
+	 *            between 0 and 100
+	 */
+	public double getPercentile(double percentile) {
+		if (!(total > 0)) {
+			return Double.NaN;
+		}
+		double rank = total * Math.max(0, Math.min(100, percentile)) / 100;
+		double seen = 0;
+		int last = counts.length - 1;
+		while (last > 0 && counts[last] <= 0) {
+			last--;
+		}
+		for (int i = 0; i <= last; i++) {
+			double count = counts[i];
+			if (count > 0 && (seen + count >= rank || i == last)) {
+				double fraction = Math.min(1, Math.max(0, (rank - seen) / count));
+				int bucket = offset + i;
+				double lower = lowerBound(bucket);
+				double upper = bucket == BUCKETS - 1 ? lower : upperBound(bucket);
+				lower = Math.max(lower, min);
+				upper = Math.max(lower, Math.min(upper, max));
+				return lower + (upper - lower) * fraction;
+			}
+			seen += count;
+		}
+		return Double.NaN;
+	}
+
+	private void grow(int first, int last) {
+		if (counts == null) {
+			offset = first;
+			counts = new double[last - first + 1];
+			return;
+		}
+		int currentLast = offset + counts.length - 1;
+		if (first >= offset && last <= currentLast) {
+			return;
+		}
+		int newOffset = Math.min(offset, first);
+		double[] grown = new double[Math.max(currentLast, last) - newOffset + 1];
+		System.arraycopy(counts, 0, grown, offset - newOffset, counts.length);
+		offset = newOffset;
+		counts = grown;
+	}
+
+	private static int bucketOf(double value) {
+		if (value < MIN_VALUE) {
+			return 0;
+		}
+		int bucket = 1 + (int) (Math.log(value / MIN_VALUE) / LOG_GROWTH);
+		return Math.min(bucket, BUCKETS - 1);
+	}
+
+	private static double lowerBound(int bucket) {
+		return bucket == 0 ? 0 : MIN_VALUE * Math.pow(GROWTH, bucket - 1);
+	}
+
+	private static double upperBound(int bucket) {
+		return bucket == BUCKETS - 1 ? Double.POSITIVE_INFINITY : MIN_VALUE * Math.pow(GROWTH, bucket);
+	}
+
+	@Override
+	public String toString() {
+		return "LogHistogram[total=" + total + (counts == null ? "" : ", buckets=" + offset + ".." + (offset + counts.length - 1)) + "]";
+	}
+}
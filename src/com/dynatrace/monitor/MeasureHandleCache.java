@@ -0,0 +1,286 @@
+package com.dynatrace.monitor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.dynatrace.diagnostics.pdk.MonitorEnvironment;
+import com.dynatrace.diagnostics.pdk.MonitorMeasure;
+
+/**
+ * Dynamic measure handles reused across executions.
+ *
+ * A handle is created once per (subscribed measure, dynamic key, split
+ * value) and kept while the split keeps showing up in the reports. The tier
+ * name of every split value is parsed once, and the subscribed measures of a
+ * metric are indexed by their Tier Filter once per execution, so a value is
+ * matched to its measures with one hash lookup however many measures are
+ * subscribed; the split value of a call between tiers matches the
+ * Tier Filter by its caller tier. Splits and subscribed measures that have not been
+ * published for a number of executions are evicted, so the handles of
+ * measures that are no longer subscribed are released while an execution
+ * that publishes nothing, e.g. while waiting for a slow server, keeps them.
+ *
+ * Optionally only changes are written: a value within a deadband of the
+ * last value written for the same measure and split is skipped, unless that
+ * write is a given number of executions ago (heartbeat). The last value is
+ * kept next to the handle, so the check costs no extra lookup.
+ */
+public class MeasureHandleCache {
+
+	private static final Logger log = Logger.getLogger(MeasureHandleCache.class.getName());
+
+	private static final String TIER_FILTER = "Tier Filter";
+	private static final String TIER_FILTER_NONE = "none";
+
+	private final int maxIdleCycles;
+	private final Map<String, Map<String, Split>> splitsByDimension = new HashMap<String, Map<String, Split>>();
+	private final Map<MonitorMeasure, Subscription> subscriptions = new IdentityHashMap<MonitorMeasure, Subscription>();
+	private int cycle;
+	private boolean changesOnly;
+	private double absoluteDeadband;
+	private double relativeDeadband;
+	private int heartbeatCycles;
+	private int suppressed;
+	private Collection<MonitorMeasure> indexedMeasures;
+	private MonitorMeasure[] unfilteredMeasures;
+	private Map<String, MonitorMeasure[]> measuresByTierFilter;
+
+	private static class Split {
+		final String tierName;
+		final Map<MonitorMeasure, Handle> handles = new IdentityHashMap<MonitorMeasure, Handle>(8);
+		int lastSeen;
+
+		Split(String tierName) {
+			this.tierName = tierName;
+		}
+	}
+
+	private static class Handle {
+		final MonitorMeasure measure;
+		double lastValue;
+		int lastWritten = -1;
+
+		Handle(MonitorMeasure measure) {
+			this.measure = measure;
+		}
+	}
+
+	private static class Subscription {
+		final String tierFilter;
+		int lastSeen;
+
+		Subscription(String tierFilter) {
+			this.tierFilter = tierFilter;
+		}
+	}
+
+	/**
+	 * @param maxIdleCycles
+	 *            number of executions a split may be missing from the
+	 *            reports before its handles are evicted
+	 */
+	public MeasureHandleCache(int maxIdleCycles) {
+		this.maxIdleCycles = maxIdleCycles;
+	}
+
+	/**
+	 * Writes only values that changed by more than the deadband; a value
+	 * within the absolute <em>or</em> the relative deadband of the last value
+	 * written is skipped.
+	 *
+	 * @param absolute
+	 *            the absolute deadband, e.g. 0.5 ms
+	 * @param relative
+	 *            the relative deadband in percent of the last value written
+	 * @param heartbeatCycles
+	 *            number of executions after which a value is written even if
+	 *            it did not change; 0 for no heartbeat
+	 */
+	public void setChangesOnly(double absolute, double relative, int heartbeatCycles) {
+		changesOnly = true;
+		absoluteDeadband = Math.max(0, absolute);
+		relativeDeadband = Math.max(0, relative) / 100;
+		this.heartbeatCycles = Math.max(0, heartbeatCycles);
+	}
+
+	/**
+	 * Sets the value of a split for all subscribed measures whose Tier Filter
+	 * is <tt>none</tt> or matches the tier name of the split.
+	 *
+	 * @param measures
+	 *            the subscribed measures of one metric
+	 * @param dimension
+	 *            the dynamic measure key, e.g. <tt>group</tt>
+	 * @param splitValue
+	 *            the dynamic measure value, e.g. the agent group
+	 * @return the number of dynamic measures written, not counting values
+	 *         skipped because they did not change
+	 */
+	public int setValue(MonitorEnvironment env, Collection<MonitorMeasure> measures, String dimension, String splitValue, double value) {
+
+		Split split = getSplit(dimension, splitValue);
+		if (measures != indexedMeasures) {
+			index(measures);
+		}
+		int written = setValue(env, unfilteredMeasures, split, dimension, splitValue, value);
+		MonitorMeasure[] filtered = measuresByTierFilter.get(split.tierName);
+		if (filtered != null) {
+			written += setValue(env, filtered, split, dimension, splitValue, value);
+		}
+		return written;
+	}
+
+	private int setValue(MonitorEnvironment env, MonitorMeasure[] measures, Split split, String dimension, String splitValue, double value) {
+		int written = 0;
+		for (MonitorMeasure measure : measures) {
+			if (log.isLoggable(Level.INFO)) {
+				log.info(measure.getMeasureName() + " for " + splitValue + " = " + value);
+			}
+			Handle handle = split.handles.get(measure);
+			if (handle == null) {
+				handle = new Handle(env.createDynamicMeasure(measure, dimension, splitValue));
+				split.handles.put(measure, handle);
+			}
+			if (changesOnly && !isChanged(handle, value)) {
+				suppressed++;
+				continue;
+			}
+			handle.measure.setValue(value);
+			handle.lastValue = value;
+			handle.lastWritten = cycle;
+			written++;
+		}
+		return written;
+	}
+
+	/**
+	 * Groups the subscribed measures of a metric by Tier Filter; measures
+	 * without a Tier Filter are never written.
+	 */
+	private void index(Collection<MonitorMeasure> measures) {
+		List<MonitorMeasure> unfiltered = new ArrayList<MonitorMeasure>();
+		Map<String, List<MonitorMeasure>> byTierFilter = new HashMap<String, List<MonitorMeasure>>();
+		for (MonitorMeasure measure : measures) {
+			Subscription subscription = subscriptions.get(measure);
+			if (subscription == null) {
+				subscription = new Subscription(measure.getParameter(TIER_FILTER));
+				subscriptions.put(measure, subscription);
+			}
+			subscription.lastSeen = cycle;
+
+			String tierFilter = subscription.tierFilter;
+			if (tierFilter == null) {
+				continue;
+			}
+			if (tierFilter.equals(TIER_FILTER_NONE)) {
+				unfiltered.add(measure);
+				continue;
+			}
+			List<MonitorMeasure> filtered = byTierFilter.get(tierFilter);
+			if (filtered == null) {
+				filtered = new ArrayList<MonitorMeasure>(1);
+				byTierFilter.put(tierFilter, filtered);
+			}
+			filtered.add(measure);
+		}
+		unfilteredMeasures = unfiltered.toArray(new MonitorMeasure[unfiltered.size()]);
+		measuresByTierFilter = new HashMap<String, MonitorMeasure[]>(byTierFilter.size() * 2);
+		for (Map.Entry<String, List<MonitorMeasure>> entry : byTierFilter.entrySet()) {
+			measuresByTierFilter.put(entry.getKey(), entry.getValue().toArray(new MonitorMeasure[entry.getValue().size()]));
+		}
+		indexedMeasures = measures;
+	}
+
+	private boolean isChanged(Handle handle, double value) {
+		if (handle.lastWritten < 0 || (heartbeatCycles > 0 && cycle - handle.lastWritten >= heartbeatCycles)) {
+			return true;
+		}
+		double last = handle.lastValue;
+		if (Double.isNaN(value) || Double.isNaN(last)) {
+			return Double.isNaN(value) != Double.isNaN(last);
+		}
+		double change = Math.abs(value - last);
+		return change > absoluteDeadband && change > relativeDeadband * Math.abs(last);
+	}
+
+	/**
+	 * Returns the number of values skipped in the current execution because
+	 * they did not change.
+	 */
+	public int getSuppressed() {
+		return suppressed;
+	}
+
+	private Split getSplit(String dimension, String splitValue) {
+		Map<String, Split> splits = splitsByDimension.get(dimension);
+		if (splits == null) {
+			splits = new HashMap<String, Split>();
+			splitsByDimension.put(dimension, splits);
+		}
+		Split split = splits.get(splitValue);
+		if (split == null) {
+			int edge = splitValue.indexOf(TierSnapshot.EDGE_SEPARATOR);
+			split = new Split(TierSnapshot.getTierName(edge < 0 ? splitValue : splitValue.substring(0, edge)));
+			splits.put(splitValue, split);
+		}
+		split.lastSeen = cycle;
+		return split;
+	}
+
+	/**
+	 * Starts a new execution. The handles of splits and measures that have
+	 * been idle for too long are evicted first.
+	 */
+	public void nextCycle() {
+
+		boolean subscriptionsChanged = false;
+		for (Iterator<Subscription> it = subscriptions.values().iterator(); it.hasNext();) {
+			if (cycle - it.next().lastSeen > maxIdleCycles) {
+				it.remove();
+				subscriptionsChanged = true;
+			}
+		}
+
+		int evicted = 0;
+		for (Iterator<Map<String, Split>> dimensions = splitsByDimension.values().iterator(); dimensions.hasNext();) {
+			Map<String, Split> splits = dimensions.next();
+			for (Iterator<Split> it = splits.values().iterator(); it.hasNext();) {
+				Split split = it.next();
+				if (cycle - split.lastSeen > maxIdleCycles) {
+					it.remove();
+					evicted++;
+				}
+				else if (subscriptionsChanged) {
+					split.handles.keySet().retainAll(subscriptions.keySet());
+				}
+			}
+			if (splits.isEmpty()) {
+				dimensions.remove();
+			}
+		}
+		if (evicted > 0) {
+			log.fine("Evicted measure handles of " + evicted + " idle splits");
+		}
+		suppressed = 0;
+		// the subscriptions may change between executions
+		indexedMeasures = null;
+		cycle++;
+	}
+
+	/**
+	 * Drops all handles.
+	 */
+	public void clear() {
+		splitsByDimension.clear();
+		subscriptions.clear();
+		indexedMeasures = null;
+		changesOnly = false;
+	}
+}
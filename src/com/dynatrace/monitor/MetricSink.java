@@ -0,0 +1,37 @@
+package com.dynatrace.monitor;
+
+/**
+ * Destination for the tier values published by the monitor, in addition to
+ * the Dynatrace measures, e.g. an external time-series store.
+ *
+ * Values are offered from <tt>execute</tt>, so a sink must never block: a
+ * value it cannot take right away is dropped and <tt>false</tt> returned.
+ */
+public interface MetricSink {
+
+	/**
+	 * Offers a value.
+	 *
+	 * @param timestamp
+	 *            when the value was published, in milliseconds
+	 * @param dimension
+	 *            the dynamic measure key, e.g. <tt>group</tt>
+	 * @param measure
+	 *            the measure name, e.g. <tt>Response Time</tt>
+	 * @param split
+	 *            the split value, e.g. the tier name
+	 * @return <tt>false</tt> if the value was dropped
+	 */
+	boolean offer(long timestamp, String dimension, String measure, String split, double value);
+
+	/**
+	 * Returns the number of values dropped so far, whether they were not
+	 * taken or could not be written later.
+	 */
+	long getDropped();
+
+	/**
+	 * Writes the values offered so far and releases the sink.
+	 */
+	void close();
+}
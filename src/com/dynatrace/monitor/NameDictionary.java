@@ -0,0 +1,173 @@
+package com.dynatrace.monitor;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Canonical instances and stable integer IDs of the agent names, groups and
+ * technologies read from the reports of a monitor.
+ *
+ * The set of names barely changes between executions, so every name read
+ * from a report is replaced by the instance kept from earlier reports.
+ * Reports, snapshots, windows and measure handles then all hold the same
+ * strings, whose hash codes are computed once, and the strings allocated by
+ * the parser are garbage as soon as the agent is read. Every name also gets
+ * an ID that lets reports be grouped with primitive arrays instead of
+ * string-keyed maps.
+ *
+ * IDs are never reused, so a report stays valid after its names were
+ * evicted. Names not read for the configured number of cycles are evicted,
+ * which bounds the dictionary by the names of the last few reports.
+ * Thread-safe: reports of several targets may be read concurrently, also
+ * while a new cycle evicts names. Marking a name as read and evicting it are
+ * atomic on the name, so a name is never handed out once it was evicted and
+ * gets the same ID everywhere within a cycle.
+ */
+public class NameDictionary {
+
+	private final int maxIdleCycles;
+	private final ConcurrentHashMap<String, Name> names = new ConcurrentHashMap<String, Name>();
+	private final AtomicInteger nextId = new AtomicInteger();
+	private volatile int cycle;
+
+	/**
+	 * A canonical name and its ID.
+	 */
+	public static final class Name {
+		private static final AtomicIntegerFieldUpdater<Name> LAST_SEEN = AtomicIntegerFieldUpdater.newUpdater(Name.class, "lastSeen");
+		/** The last seen cycle of an evicted name. */
+		private static final int EVICTED = Integer.MIN_VALUE;
+
+		private final String value;
+		private final int id;
+		private volatile int lastSeen;
+
+		Name(String value, int id) {
+			this.value = value;
+			this.id = id;
+		}
+
+		public String getValue() {
+			return value;
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		@Override
+		public String toString() {
+			return value;
+		}
+
+		/**
+		 * Marks the name as read in a cycle.
+		 *
+		 * @return <tt>false</tt> if the name was evicted
+		 */
+		boolean markSeen(int cycle) {
+			while (true) {
+				int seen = lastSeen;
+				if (seen == EVICTED) {
+					return false;
+				}
+				if (seen == cycle || LAST_SEEN.compareAndSet(this, seen, cycle)) {
+					return true;
+				}
+			}
+		}
+
+		/**
+		 * Marks the name as evicted unless it was read in the last
+		 * <tt>maxIdleCycles</tt> cycles.
+		 */
+		boolean evictIdle(int cycle, int maxIdleCycles) {
+			while (true) {
+				int seen = lastSeen;
+				if (seen == EVICTED) {
+					return true;
+				}
+				if (cycle - seen <= maxIdleCycles) {
+					return false;
+				}
+				if (LAST_SEEN.compareAndSet(this, seen, EVICTED)) {
+					return true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates a dictionary that never evicts, for reports read outside of a
+	 * monitor.
+	 */
+	public NameDictionary() {
+		this(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param maxIdleCycles
+	 *            cycles after which a name that was not read is evicted
+	 */
+	public NameDictionary(int maxIdleCycles) {
+		this.maxIdleCycles = maxIdleCycles;
+	}
+
+	/**
+	 * Returns the canonical instance of a name, adding it if it is new.
+	 *
+	 * @return the name, or <tt>null</tt> if the value is <tt>null</tt>
+	 */
+	public Name intern(String value) {
+		if (value == null) {
+			return null;
+		}
+		while (true) {
+			Name name = names.get(value);
+			if (name == null) {
+				name = new Name(value, nextId.getAndIncrement());
+				name.lastSeen = cycle;
+				Name existing = names.putIfAbsent(value, name);
+				if (existing == null) {
+					return name;
+				}
+				name = existing;
+			}
+			if (name.markSeen(cycle)) {
+				return name;
+			}
+			// evicted concurrently; make sure its entry is gone and add the name anew
+			names.remove(value, name);
+		}
+	}
+
+	/**
+	 * Starts a new cycle and evicts the names not read for the configured
+	 * number of cycles.
+	 */
+	public void nextCycle() {
+		int current = ++cycle;
+		if (maxIdleCycles == Integer.MAX_VALUE) {
+			return;
+		}
+		for (Iterator<Name> it = names.values().iterator(); it.hasNext();) {
+			Name name = it.next();
+			if (name.evictIdle(current, maxIdleCycles)) {
+				names.remove(name.value, name);
+			}
+		}
+	}
+
+	public int size() {
+		return names.size();
+	}
+
+	/**
+	 * Removes all names. IDs handed out before are not reused.
+	 */
+	public void clear() {
+		names.clear();
+	}
+}
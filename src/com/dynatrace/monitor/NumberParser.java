@@ -0,0 +1,145 @@
+package com.dynatrace.monitor;
+
+/**
+ * Allocation-free parser for the decimal attribute values of a report.
+ *
+ * Values with at most 15 significant digits and a decimal exponent within
+ * &plusmn;22, which covers all values the Dynatrace server writes, are
+ * converted exactly with a single multiplication or division. Anything else
+ * falls back to {@link Double#parseDouble(String)}.
+ */
+public final class NumberParser {
+
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+		1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+	private static final long MAX_EXACT_MANTISSA = 999999999999999L;
+
+	private NumberParser() {
+	}
+
+	/**
+	 * Parses a decimal number.
+	 *
+	 * @return the value, or <tt>NaN</tt> if the text is <tt>null</tt> or not a
+	 *         number
+	 */
+	public static double parseDouble(CharSequence text) {
+		if (text == null) {
+			return Double.NaN;
+		}
+		return parseDouble(text, 0, text.length());
+	}
+
+	/**
+	 * Parses the decimal number in <tt>text[start, end)</tt>.
+	 *
+	 * @return the value, or <tt>NaN</tt> if the text is not a number
+	 */
+	public static double parseDouble(CharSequence text, int start, int end) {
+
+		int i = start;
+		while (i < end && text.charAt(i) <= ' ') {
+			i++;
+		}
+		while (end > i && text.charAt(end - 1) <= ' ') {
+			end--;
+		}
+		if (i == end) {
+			return Double.NaN;
+		}
+
+		boolean negative = false;
+		char c = text.charAt(i);
+		if (c == '-' || c == '+') {
+			negative = c == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int exponent = 0;
+		int digits = 0;
+		boolean exact = true;
+		boolean seenDigit = false;
+		boolean seenPoint = false;
+
+		for (; i < end; i++) {
+			c = text.charAt(i);
+			if (c >= '0' && c <= '9') {
+				seenDigit = true;
+				if (mantissa == 0 && c == '0') {
+					// leading zeros are not significant
+					if (seenPoint) {
+						exponent--;
+					}
+					continue;
+				}
+				if (mantissa <= MAX_EXACT_MANTISSA / 10) {
+					mantissa = mantissa * 10 + (c - '0');
+					digits++;
+					if (seenPoint) {
+						exponent--;
+					}
+				}
+				else {
+					exact = false;
+					if (!seenPoint) {
+						exponent++;
+					}
+				}
+			}
+			else if (c == '.' && !seenPoint) {
+				seenPoint = true;
+			}
+			else {
+				break;
+			}
+		}
+		if (!seenDigit) {
+			return fallback(text, start, end);
+		}
+
+		if (i < end) {
+			c = text.charAt(i);
+			if (c != 'e' && c != 'E') {
+				return fallback(text, start, end);
+			}
+			i++;
+			boolean negativeExponent = false;
+			if (i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+				negativeExponent = text.charAt(i) == '-';
+				i++;
+			}
+			if (i == end) {
+				return fallback(text, start, end);
+			}
+			int explicitExponent = 0;
+			for (; i < end; i++) {
+				c = text.charAt(i);
+				if (c < '0' || c > '9') {
+					return fallback(text, start, end);
+				}
+				if (explicitExponent < 10000) {
+					explicitExponent = explicitExponent * 10 + (c - '0');
+				}
+			}
+			exponent += negativeExponent ? -explicitExponent : explicitExponent;
+		}
+
+		if (!exact || digits > 15 || exponent < -22 || exponent > 22) {
+			return fallback(text, start, end);
+		}
+		double value = mantissa;
+		value = exponent < 0 ? value / POWERS_OF_TEN[-exponent] : value * POWERS_OF_TEN[exponent];
+		return negative ? -value : value;
+	}
+
+	private static double fallback(CharSequence text, int start, int end) {
+		try {
+			return Double.parseDouble(text.subSequence(start, end).toString());
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package com.dynatrace.monitor;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Tier distributions accumulated across executions, so percentiles can
+ * cover a longer horizon than the timeframe of a single report.
+ *
+ * Every tier keeps one {@link LogHistogram} per value. Before the
+ * distributions of a new snapshot are added, the accumulated counts decay
+ * exponentially with the time since the previous update, so a report
+ * fetched one horizon ago still counts 1/e as much as the current one.
+ * Memory is bounded by the number of tiers; tiers missing from the
+ * snapshots for several horizons are dropped. A snapshot that was already
+ * added, e.g. republished while a background refresh is pending, is not
+ * added again.
+ */
+public class PercentileHorizon {
+
+	/** Horizons after which a tier missing from the snapshots is dropped. */
+	private static final int EVICTION_HORIZONS = 5;
+
+	private final long horizon;
+	private final Map<String, Tier> tiers = new HashMap<String, Tier>();
+	private long updatedAt;
+	private TierSnapshot last;
+
+	private static class Tier {
+		final LogHistogram[] distributions = new LogHistogram[3];
+		long lastSeen;
+	}
+
+	/**
+	 * @param horizon
+	 *            the decay time constant in milliseconds
+	 */
+	public PercentileHorizon(long horizon) {
+		this.horizon = horizon;
+	}
+
+	/**
+	 * Lets the accumulated distributions decay and adds those of a snapshot.
+	 *
+	 * @param now
+	 *            the current time in milliseconds
+	 */
+	public void update(TierSnapshot snapshot, long now) {
+
+		if (snapshot == last) {
+			return;
+		}
+		last = snapshot;
+		double decay = updatedAt == 0 ? 1 : Math.exp(-Math.max(0, now - updatedAt) / (double) horizon);
+		updatedAt = now;
+		for (Iterator<Tier> it = tiers.values().iterator(); it.hasNext();) {
+			Tier tier = it.next();
+			if (now - tier.lastSeen > EVICTION_HORIZONS * horizon) {
+				it.remove();
+				continue;
+			}
+			for (LogHistogram distribution : tier.distributions) {
+				if (distribution != null) {
+					distribution.scale(decay);
+				}
+			}
+		}
+
+		for (int i = 0; i < snapshot.getTierCount(); i++) {
+			Tier tier = tiers.get(snapshot.getTier(i));
+			if (tier == null) {
+				tier = new Tier();
+				tiers.put(snapshot.getTier(i), tier);
+			}
+			tier.lastSeen = now;
+			for (int field = 0; field < tier.distributions.length; field++) {
+				LogHistogram distribution = snapshot.getDistribution(field, i);
+				if (distribution == null) {
+					continue;
+				}
+				if (tier.distributions[field] == null) {
+					tier.distributions[field] = new LogHistogram();
+				}
+				tier.distributions[field].merge(distribution);
+			}
+		}
+	}
+
+	/**
+	 * Returns the accumulated distribution of a value of a tier, or
+	 * <tt>null</tt> if the tier never reported it.
+	 *
+	 * @param field
+	 *            one of the value constants of {@link TransactionFlowReport}
+	 * @param tier
+	 *            the split value of the tier
+	 */
+	public LogHistogram getDistribution(int field, String tier) {
+		Tier entry = tiers.get(tier);
+		return entry == null ? null : entry.distributions[field];
+	}
+
+	public int getTierCount() {
+		return tiers.size();
+	}
+}
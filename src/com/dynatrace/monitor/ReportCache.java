@@ -0,0 +1,166 @@
+package com.dynatrace.monitor;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+
+/**
+ * Process-wide single-flight cache of parsed reports.
+ *
+ * Monitors that request the same report at the same time share one fetch:
+ * the first caller loads the report on its own thread, concurrent callers
+ * wait for that load, and callers arriving within the time-to-live of a
+ * completed load reuse its result. Failed loads are not cached. The number
+ * of cached reports is bounded; the least recently used one is evicted
+ * first, and expired reports are removed whenever the cache is accessed.
+ * Monitors using the cache register in setup and release it in teardown;
+ * when the last one releases it, all cached reports are dropped.
+ */
+public class ReportCache {
+
+	private static final Logger log = Logger.getLogger(ReportCache.class.getName());
+
+	private static final ReportCache shared = new ReportCache();
+
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private int users;
+
+	private static class Entry {
+		final FutureTask<TransactionFlowReport> load;
+		final long timeToLive;
+		volatile long loadedAt;
+
+		Entry(final Callable<TransactionFlowReport> loader, long timeToLive) {
+			this.timeToLive = timeToLive;
+			load = new FutureTask<TransactionFlowReport>(new Callable<TransactionFlowReport>() {
+				public TransactionFlowReport call() throws Exception {
+					try {
+						return loader.call();
+					} finally {
+						loadedAt = System.currentTimeMillis();
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Returns the cache shared by all monitor instances of this plugin.
+	 */
+	public static ReportCache getShared() {
+		return shared;
+	}
+
+	/**
+	 * Registers a monitor using the cache.
+	 */
+	public void acquire() {
+		synchronized (entries) {
+			users++;
+		}
+	}
+
+	/**
+	 * Releases the cache for a monitor registered with {@link #acquire()};
+	 * the cached reports are dropped when no monitor uses the cache anymore.
+	 */
+	public void release() {
+		synchronized (entries) {
+			if (users > 0 && --users == 0) {
+				entries.clear();
+			}
+		}
+	}
+
+	/**
+	 * Returns the cached report for a key, loading it if there is neither a
+	 * load in flight nor a completed load younger than the time-to-live.
+	 *
+	 * @param key
+	 *            identifies the report, e.g. server, port, report URL and
+	 *            credentials
+	 * @param timeToLive
+	 *            how long a completed load is reused, in milliseconds
+	 * @param maxEntries
+	 *            the maximum number of cached reports
+	 * @param waitTimeout
+	 *            how long to wait for a load started by another caller, in
+	 *            milliseconds
+	 * @param loader
+	 *            loads the report; called on the calling thread
+	 * @throws TimeoutException
+	 *             if the load of another caller did not complete in time
+	 */
+	public TransactionFlowReport get(String key, long timeToLive, int maxEntries, long waitTimeout, Callable<TransactionFlowReport> loader) throws Exception {
+
+		Entry entry;
+		boolean owner = false;
+		synchronized (entries) {
+			removeExpired();
+			entry = entries.get(key);
+			if (entry == null) {
+				entry = new Entry(loader, timeToLive);
+				entries.put(key, entry);
+				owner = true;
+				evict(Math.max(1, maxEntries));
+			}
+		}
+
+		if (owner) {
+			entry.load.run();
+		}
+		else {
+			log.finer("Sharing report for " + key);
+		}
+
+		try {
+			return entry.load.get(waitTimeout, TimeUnit.MILLISECONDS);
+		} catch (ExecutionException e) {
+			synchronized (entries) {
+				if (entries.get(key) == entry) {
+					entries.remove(key);
+				}
+			}
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			throw e;
+		}
+	}
+
+	private void removeExpired() {
+		long now = System.currentTimeMillis();
+		Iterator<Entry> it = entries.values().iterator();
+		while (it.hasNext()) {
+			Entry entry = it.next();
+			// loadedAt is set before the load completes, a load in flight never expires
+			if (entry.load.isDone() && now - entry.loadedAt >= entry.timeToLive) {
+				it.remove();
+			}
+		}
+	}
+
+	private void evict(int maxEntries) {
+		Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+		while (entries.size() > maxEntries && it.hasNext()) {
+			it.next();
+			it.remove();
+		}
+	}
+
+	/**
+	 * Returns the number of cached reports.
+	 */
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+}
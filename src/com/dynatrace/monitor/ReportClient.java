@@ -0,0 +1,217 @@
+package com.dynatrace.monitor;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.conn.ssl.TrustStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+
+/**
+ * Connection-pooled, keep-alive HTTP client used to fetch reports from the
+ * Dynatrace server.
+ *
+ * The client is owned by one monitor instance: it is created in setup,
+ * reused by every execution and shut down in teardown. The SSL context is
+ * built once when the client is created. Certificate and hostname checks
+ * are disabled for this client only; the JVM-wide defaults are left
+ * untouched. The time spent opening connections is recorded per calling
+ * thread and handed to the returned {@link ReportStream}.
+ */
+public class ReportClient {
+
+	private static final Logger log = Logger.getLogger(ReportClient.class.getName());
+
+	private static final int DEFAULT_MAX_CONNECTIONS = 2;
+	private static final long IDLE_CONNECTION_TIMEOUT = 120000;
+
+	private final ThreadSafeClientConnManager connectionManager;
+	private final DefaultHttpClient httpClient;
+	private final ThreadLocal<long[]> connectNanos = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[1];
+		}
+	};
+
+	/**
+	 * @param port
+	 *            the port of the Dynatrace server REST interface
+	 * @param connectTimeout
+	 *            the connect timeout in milliseconds
+	 */
+	public ReportClient(int port, int connectTimeout) throws Exception {
+		this(port, connectTimeout, DEFAULT_MAX_CONNECTIONS);
+	}
+
+	/**
+	 * @param port
+	 *            the port of the Dynatrace server REST interface
+	 * @param connectTimeout
+	 *            the connect timeout in milliseconds
+	 * @param maxConnections
+	 *            the maximum number of pooled connections per server
+	 */
+	public ReportClient(int port, int connectTimeout, int maxConnections) throws Exception {
+		this(port, connectTimeout, 0, maxConnections);
+	}
+
+	/**
+	 * @param port
+	 *            the port of the Dynatrace server REST interface
+	 * @param connectTimeout
+	 *            the connect timeout in milliseconds
+	 * @param readTimeout
+	 *            the maximum time a read may block in milliseconds, 0 for no
+	 *            limit
+	 * @param maxConnections
+	 *            the maximum number of pooled connections per server
+	 */
+	public ReportClient(int port, int connectTimeout, int readTimeout, int maxConnections) throws Exception {
+
+		log.finer("Entering ReportClient constructor");
+
+		// trust policy scoped to this client: accept the self-signed certificates of the server
+		TrustStrategy trustAll = new TrustStrategy() {
+			public boolean isTrusted(X509Certificate[] chain, String authType) {
+				return true;
+			}
+		};
+		SSLSocketFactory sslSocketFactory = new SSLSocketFactory(trustAll, SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER) {
+			@Override
+			public Socket connectSocket(Socket socket, InetSocketAddress remoteAddress, InetSocketAddress localAddress, HttpParams params) throws IOException {
+				long start = System.nanoTime();
+				try {
+					return super.connectSocket(socket, remoteAddress, localAddress, params);
+				} finally {
+					connectNanos.get()[0] += System.nanoTime() - start;
+				}
+			}
+		};
+		PlainSocketFactory plainSocketFactory = new PlainSocketFactory() {
+			@Override
+			public Socket connectSocket(Socket socket, InetSocketAddress remoteAddress, InetSocketAddress localAddress, HttpParams params) throws IOException {
+				long start = System.nanoTime();
+				try {
+					return super.connectSocket(socket, remoteAddress, localAddress, params);
+				} finally {
+					connectNanos.get()[0] += System.nanoTime() - start;
+				}
+			}
+		};
+
+		SchemeRegistry schemeRegistry = new SchemeRegistry();
+		schemeRegistry.register(new Scheme("http", port, plainSocketFactory));
+		schemeRegistry.register(new Scheme("https", port, sslSocketFactory));
+
+		connectionManager = new ThreadSafeClientConnManager(schemeRegistry);
+		connectionManager.setMaxTotal(maxConnections);
+		connectionManager.setDefaultMaxPerRoute(maxConnections);
+
+		HttpParams params = new BasicHttpParams();
+		HttpConnectionParams.setConnectionTimeout(params, connectTimeout);
+		HttpConnectionParams.setSoTimeout(params, readTimeout);
+		HttpConnectionParams.setStaleCheckingEnabled(params, true);
+		httpClient = new DefaultHttpClient(connectionManager, params);
+
+		log.finer("Exiting ReportClient constructor");
+	}
+
+	/**
+	 * Requests a report and returns the response body. A gzip or deflate
+	 * compressed body is decompressed while it is read. Closing the returned
+	 * stream releases the connection back to the pool if the body was read
+	 * to its end, and aborts the connection otherwise.
+	 *
+	 * @param url
+	 *            the report URL
+	 * @param authorization
+	 *            the value of the Authorization header
+	 * @throws ClientProtocolException
+	 *             if the server does not answer with HTTP 200
+	 */
+	public ReportStream open(URL url, String authorization) throws IOException {
+		return open(url, authorization, null);
+	}
+
+	/**
+	 * Requests a report and returns the response body. Connecting and every
+	 * single read are limited to the time left until the deadline, and
+	 * reads fail once it has expired.
+	 *
+	 * @param url
+	 *            the report URL
+	 * @param authorization
+	 *            the value of the Authorization header
+	 * @param deadline
+	 *            the deadline of the request, or <tt>null</tt>
+	 * @throws ClientProtocolException
+	 *             if the server does not answer with HTTP 200
+	 */
+	public ReportStream open(URL url, String authorization, Deadline deadline) throws IOException {
+
+		connectionManager.closeIdleConnections(IDLE_CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS);
+
+		HttpGet request = new HttpGet(url.toString());
+		request.setHeader("Authorization", authorization);
+		request.setHeader("Accept-Encoding", "gzip, deflate");
+		if (deadline != null) {
+			long remaining = deadline.getRemaining();
+			if (remaining <= 0) {
+				throw new InterruptedIOException("Execution deadline exceeded before requesting " + url);
+			}
+			HttpParams params = httpClient.getParams();
+			int limit = (int) Math.min(remaining, Integer.MAX_VALUE);
+			int connectTimeout = HttpConnectionParams.getConnectionTimeout(params);
+			int readTimeout = HttpConnectionParams.getSoTimeout(params);
+			HttpConnectionParams.setConnectionTimeout(request.getParams(), connectTimeout > 0 ? Math.min(connectTimeout, limit) : limit);
+			HttpConnectionParams.setSoTimeout(request.getParams(), readTimeout > 0 ? Math.min(readTimeout, limit) : limit);
+		}
+
+		long[] connected = connectNanos.get();
+		connected[0] = 0;
+		long start = System.nanoTime();
+		HttpResponse response = httpClient.execute(request);
+		long firstByteNanos = System.nanoTime() - start;
+		HttpEntity entity = response.getEntity();
+		int statusCode = response.getStatusLine().getStatusCode();
+		if (statusCode != HttpStatus.SC_OK || entity == null) {
+			// the error body is not read, reading it would not be bounded by the deadline
+			request.abort();
+			throw new ClientProtocolException("Unexpected response from " + url + ": " + response.getStatusLine());
+		}
+		Header contentEncoding = entity.getContentEncoding();
+		try {
+			return new ReportStream(entity.getContent(), contentEncoding == null ? null : contentEncoding.getValue(), connected[0], firstByteNanos, deadline);
+		} catch (IOException e) {
+			request.abort();
+			throw e;
+		}
+	}
+
+	/**
+	 * Closes all pooled connections.
+	 */
+	public void shutdown() {
+		connectionManager.shutdown();
+	}
+}
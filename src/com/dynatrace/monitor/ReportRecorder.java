@@ -0,0 +1,252 @@
+package com.dynatrace.monitor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Appends the report responses of a monitor to compressed segment files, so
+ * they can be replayed later with {@link ReportSegment}.
+ *
+ * A response is captured while it is parsed: the bytes read by the parser
+ * are compressed on the fly, and when the report is complete the record is
+ * appended to the current segment with a single write. A segment is closed
+ * and a new one started when the next record would exceed the segment size.
+ * Only the newest segments in the directory are kept, counting those left
+ * by earlier runs and by other monitors recording to the same directory; a
+ * segment file name starts with the time it was started, so the names sort
+ * from oldest to newest.
+ *
+ * <pre>
+ * segment: int MAGIC, byte VERSION, record*
+ * record:  long timestamp (ms), short URL length, URL (UTF-8),
+ *          int response length, int compressed length, zlib data
+ * </pre>
+ *
+ * All numbers are big-endian. Thread-safe: the fetches of several targets
+ * may record concurrently.
+ */
+public class ReportRecorder {
+
+	private static final Logger log = Logger.getLogger(ReportRecorder.class.getName());
+
+	/** First bytes of every segment: "TTRS". */
+	public static final int MAGIC = 0x54545253;
+	public static final byte VERSION = 1;
+	/** File name suffix of segments. */
+	public static final String SEGMENT_SUFFIX = ".seg";
+
+	private static final int HEADER_SIZE = 5;
+	private static final int CAPTURE_BUFFER_SIZE = 8192;
+	// distinguishes segments started by recorders of the same process in the same millisecond
+	private static final AtomicInteger segmentSequence = new AtomicInteger();
+
+	private final File directory;
+	private final long segmentSize;
+	private final int maxSegments;
+	private FileOutputStream out;
+	private long written;
+
+	/**
+	 * @param directory
+	 *            the directory the segments are written to; created if missing
+	 * @param segmentSize
+	 *            bytes after which a new segment is started; a single record
+	 *            larger than this gets a segment of its own
+	 * @param maxSegments
+	 *            segments kept in the directory, the oldest are deleted; 0
+	 *            keeps all
+	 */
+	public ReportRecorder(File directory, long segmentSize, int maxSegments) {
+		this.directory = directory;
+		this.segmentSize = Math.min(segmentSize, Integer.MAX_VALUE);
+		this.maxSegments = maxSegments;
+	}
+
+	/**
+	 * Starts capturing a response. The returned stream must be read instead
+	 * of the response, then passed to {@link #append(Recording)} once the
+	 * report was parsed, and finally released with
+	 * {@link Recording#discard()}.
+	 *
+	 * @param url
+	 *            the URL the response was requested from
+	 */
+	public Recording startRecording(String url, InputStream in) {
+		return new Recording(url, System.currentTimeMillis(), in);
+	}
+
+	/**
+	 * Reads the rest of a captured response and appends it to the current
+	 * segment.
+	 */
+	public void append(Recording recording) throws IOException {
+
+		byte[] record = recording.finish();
+		synchronized (this) {
+			if (out != null && written + record.length > segmentSize) {
+				closeSegment();
+			}
+			if (out == null) {
+				openSegment();
+			}
+			out.write(record);
+			written += record.length;
+		}
+	}
+
+	private void openSegment() throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create " + directory);
+		}
+		File segment = new File(directory, String.format("reports-%013d-%04d%s", System.currentTimeMillis(),
+				segmentSequence.getAndIncrement() % 10000, SEGMENT_SUFFIX));
+		out = new FileOutputStream(segment);
+		DataOutputStream header = new DataOutputStream(out);
+		header.writeInt(MAGIC);
+		header.writeByte(VERSION);
+		written = HEADER_SIZE;
+		log.fine("Recording reports to " + segment);
+		deleteOldSegments();
+	}
+
+	private void deleteOldSegments() {
+		if (maxSegments <= 0) {
+			return;
+		}
+		String[] names = directory.list();
+		if (names == null) {
+			return;
+		}
+		String[] segmentNames = new String[names.length];
+		int count = 0;
+		for (String name : names) {
+			if (name.startsWith("reports-") && name.endsWith(SEGMENT_SUFFIX)) {
+				segmentNames[count++] = name;
+			}
+		}
+		Arrays.sort(segmentNames, 0, count);
+		for (int i = 0; i < count - maxSegments; i++) {
+			File oldest = new File(directory, segmentNames[i]);
+			if (!oldest.delete()) {
+				log.warning("Cannot delete recorded segment " + oldest);
+			}
+		}
+	}
+
+	private void closeSegment() throws IOException {
+		try {
+			out.close();
+		} finally {
+			out = null;
+		}
+	}
+
+	/**
+	 * Closes the current segment; a later record starts a new one.
+	 */
+	public synchronized void close() {
+		if (out != null) {
+			try {
+				closeSegment();
+			} catch (IOException e) {
+				log.warning("Closing the recorded segment failed: " + e);
+			}
+		}
+	}
+
+	/**
+	 * A response being captured: compresses every byte read through it.
+	 */
+	public static class Recording extends FilterInputStream {
+
+		private final String url;
+		private final long timestamp;
+		private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		private final ByteArrayOutputStream compressed = new ByteArrayOutputStream(CAPTURE_BUFFER_SIZE);
+		private final DeflaterOutputStream capture = new DeflaterOutputStream(compressed, deflater, CAPTURE_BUFFER_SIZE);
+		private long length;
+
+		Recording(String url, long timestamp, InputStream in) {
+			super(in);
+			this.url = url;
+			this.timestamp = timestamp;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				capture.write(b);
+				length++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				capture.write(b, off, n);
+				length += n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			// skipped bytes would be missing from the recording
+			byte[] buffer = new byte[(int) Math.min(n, CAPTURE_BUFFER_SIZE)];
+			int read = read(buffer, 0, buffer.length);
+			return Math.max(0, read);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		/**
+		 * Does not close the response; it is closed by whoever opened it.
+		 */
+		@Override
+		public void close() {
+		}
+
+		byte[] finish() throws IOException {
+			byte[] buffer = new byte[CAPTURE_BUFFER_SIZE];
+			while (read(buffer, 0, buffer.length) >= 0) {
+				// the parser may stop before the end of the response
+			}
+			capture.finish();
+			byte[] urlBytes = url.getBytes("UTF-8");
+			int urlLength = Math.min(urlBytes.length, 0xFFFF);
+			ByteArrayOutputStream record = new ByteArrayOutputStream(compressed.size() + urlLength + 18);
+			DataOutputStream data = new DataOutputStream(record);
+			data.writeLong(timestamp);
+			data.writeShort(urlLength);
+			data.write(urlBytes, 0, urlLength);
+			data.writeInt((int) Math.min(length, Integer.MAX_VALUE));
+			data.writeInt(compressed.size());
+			compressed.writeTo(data);
+			return record.toByteArray();
+		}
+
+		/**
+		 * Releases the compressor; the recording cannot be appended
+		 * afterwards.
+		 */
+		public void discard() {
+			deflater.end();
+		}
+	}
+}
@@ -0,0 +1,198 @@
+package com.dynatrace.monitor;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.logging.Logger;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads the records of a segment written by {@link ReportRecorder}.
+ *
+ * The segment is memory-mapped, and every report is decompressed straight
+ * from the mapping while it is parsed, so replay neither copies the segment
+ * onto the heap nor holds more than one decompression buffer. A record cut
+ * short, e.g. because the process stopped while appending it, ends the
+ * segment.
+ *
+ * <pre>
+ * ReportSegment segment = new ReportSegment(file);
+ * try {
+ *     while (segment.next()) {
+ *         monitor.processReport(env, segment.openReport());
+ *     }
+ * } finally {
+ *     segment.close();
+ * }
+ * </pre>
+ *
+ * Not thread-safe.
+ */
+public class ReportSegment {
+
+	private static final Logger log = Logger.getLogger(ReportSegment.class.getName());
+
+	private static final int INFLATE_BUFFER_SIZE = 8192;
+
+	private final File file;
+	private final ByteBuffer buffer;
+	private final Inflater inflater = new Inflater();
+	private long timestamp;
+	private String url;
+	private int length;
+	private ByteBuffer compressed;
+
+	/**
+	 * Maps a segment.
+	 *
+	 * @throws IOException
+	 *             if the file cannot be read or is not a segment
+	 */
+	public ReportSegment(File file) throws IOException {
+		this.file = file;
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			// the mapping stays valid after the channel is closed
+			buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+		} finally {
+			in.close();
+		}
+		if (buffer.remaining() < 5 || buffer.getInt() != ReportRecorder.MAGIC) {
+			throw new IOException(file + " is not a report segment");
+		}
+		byte version = buffer.get();
+		if (version != ReportRecorder.VERSION) {
+			throw new IOException(file + " has unsupported segment version " + version);
+		}
+	}
+
+	/**
+	 * Returns the segments of a directory, oldest first.
+	 */
+	public static File[] list(File directory) {
+		File[] segments = directory.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return file.isFile() && file.getName().endsWith(ReportRecorder.SEGMENT_SUFFIX);
+			}
+		});
+		if (segments == null) {
+			return new File[0];
+		}
+		// names start with the zero-padded creation time
+		Arrays.sort(segments);
+		return segments;
+	}
+
+	/**
+	 * Moves to the next record.
+	 *
+	 * @return <tt>false</tt> at the end of the segment
+	 */
+	public boolean next() {
+		compressed = null;
+		if (buffer.remaining() == 0) {
+			return false;
+		}
+		try {
+			timestamp = buffer.getLong();
+			byte[] urlBytes = new byte[buffer.getShort() & 0xFFFF];
+			buffer.get(urlBytes);
+			url = new String(urlBytes, "UTF-8");
+			length = buffer.getInt();
+			int compressedLength = buffer.getInt();
+			if (compressedLength < 0 || compressedLength > buffer.remaining()) {
+				throw new IOException("record of " + compressedLength + " bytes exceeds the segment");
+			}
+			compressed = buffer.slice();
+			compressed.limit(compressedLength);
+			buffer.position(buffer.position() + compressedLength);
+			return true;
+		} catch (Exception e) {
+			log.warning("Truncated record in " + file + " at byte " + buffer.position() + ", skipping the rest: " + e);
+			buffer.position(buffer.limit());
+			return false;
+		}
+	}
+
+	/**
+	 * Returns when the current report was fetched, in milliseconds.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Returns the URL the current report was fetched from.
+	 */
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * Returns the size of the current report, uncompressed.
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Opens the current report. The stream is valid until the next call of
+	 * {@link #next()}.
+	 */
+	public InputStream openReport() {
+		if (compressed == null) {
+			throw new IllegalStateException("no current record");
+		}
+		inflater.reset();
+		return new InflaterInputStream(new BufferInputStream(compressed.duplicate()), inflater, INFLATE_BUFFER_SIZE);
+	}
+
+	/**
+	 * Releases the decompressor. The mapping is released when the segment is
+	 * garbage collected.
+	 */
+	public void close() {
+		inflater.end();
+	}
+
+	/**
+	 * Reads a byte buffer without copying it to the heap first.
+	 */
+	private static class BufferInputStream extends InputStream {
+
+		private final ByteBuffer buffer;
+
+		BufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			int n = Math.min(len, buffer.remaining());
+			buffer.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+}
@@ -0,0 +1,231 @@
+package com.dynatrace.monitor;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.http.conn.ConnectionReleaseTrigger;
+
+/**
+ * Response body of a report request.
+ *
+ * A gzip or deflate encoded body is decompressed while it is read, so the
+ * inflated payload is never buffered as a whole. The bytes received on the
+ * wire and the bytes handed to the parser are counted separately, and so is
+ * the time spent waiting for the server. Reads fail once the deadline of
+ * the stream has expired.
+ *
+ * Closing a pooled HTTP response body before its end would read the rest
+ * of it, unbounded by the deadline, to reuse the connection. So a body that
+ * is closed after the deadline expired, or with more than a short tail
+ * left unread, aborts its connection instead.
+ */
+public class ReportStream extends FilterInputStream {
+
+	private static final int BUFFER_SIZE = 8192;
+	/** Unread body bytes still drained on close to keep the connection. */
+	private static final int DRAIN_LIMIT = 8192;
+
+	private final CountingInputStream transferred;
+	private final CountingInputStream decoded;
+	private final String contentEncoding;
+	private final long connectNanos;
+	private final long firstByteNanos;
+	private final Deadline deadline;
+	private final InputStream body;
+	private boolean closed;
+
+	/**
+	 * @param body
+	 *            the raw response body
+	 * @param contentEncoding
+	 *            the Content-Encoding of the response, or <tt>null</tt>
+	 */
+	public ReportStream(InputStream body, String contentEncoding) throws IOException {
+		this(body, contentEncoding, 0, 0, null);
+	}
+
+	/**
+	 * @param body
+	 *            the raw response body
+	 * @param contentEncoding
+	 *            the Content-Encoding of the response, or <tt>null</tt>
+	 * @param connectNanos
+	 *            the time spent opening the connection, 0 for a pooled one
+	 * @param firstByteNanos
+	 *            the time from starting the request to receiving the
+	 *            response headers
+	 * @param deadline
+	 *            the deadline after which reads fail, or <tt>null</tt>
+	 */
+	public ReportStream(InputStream body, String contentEncoding, long connectNanos, long firstByteNanos, Deadline deadline) throws IOException {
+		this(body, new CountingInputStream(body), contentEncoding, connectNanos, firstByteNanos, deadline);
+	}
+
+	private ReportStream(InputStream body, CountingInputStream transferred, String contentEncoding, long connectNanos, long firstByteNanos, Deadline deadline) throws IOException {
+		super(new CountingInputStream(decode(transferred, contentEncoding)));
+		this.body = body;
+		this.transferred = transferred;
+		this.decoded = (CountingInputStream) in;
+		this.contentEncoding = contentEncoding;
+		this.connectNanos = connectNanos;
+		this.firstByteNanos = firstByteNanos;
+		this.deadline = deadline;
+	}
+
+	@Override
+	public int read() throws IOException {
+		checkDeadline();
+		return super.read();
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		checkDeadline();
+		return super.read(b, off, len);
+	}
+
+	/**
+	 * Releases the body: the connection is kept if the rest of the body is
+	 * drained within the deadline and the drain limit, and aborted otherwise.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (!drainTail() && body instanceof ConnectionReleaseTrigger) {
+			((ConnectionReleaseTrigger) body).abortConnection();
+		}
+		super.close();
+	}
+
+	private boolean drainTail() {
+		byte[] buffer = new byte[512];
+		long drained = 0;
+		try {
+			while (drained <= DRAIN_LIMIT) {
+				if (deadline != null && deadline.isExpired()) {
+					return false;
+				}
+				int n = transferred.read(buffer);
+				if (n < 0) {
+					return true;
+				}
+				drained += n;
+			}
+		} catch (IOException e) {
+			// the connection is not reusable
+		}
+		return false;
+	}
+
+	private void checkDeadline() throws InterruptedIOException {
+		if (deadline != null && deadline.isExpired()) {
+			throw new InterruptedIOException("Execution deadline exceeded while reading the report");
+		}
+	}
+
+	private static InputStream decode(InputStream body, String contentEncoding) throws IOException {
+		if (contentEncoding == null) {
+			return body;
+		}
+		String encoding = contentEncoding.trim().toLowerCase();
+		if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+			return new GZIPInputStream(body, BUFFER_SIZE);
+		}
+		if (encoding.equals("deflate")) {
+			// servers send deflate either zlib wrapped (RFC 1950) or raw (RFC 1951)
+			PushbackInputStream pushback = new PushbackInputStream(body, 2);
+			byte[] header = new byte[2];
+			int n = pushback.read(header);
+			if (n > 0) {
+				pushback.unread(header, 0, n);
+			}
+			boolean zlibWrapped = n == 2 && (header[0] & 0x0f) == 8 && (((header[0] & 0xff) << 8) | (header[1] & 0xff)) % 31 == 0;
+			return new OwnedInflaterInputStream(pushback, new Inflater(!zlibWrapped));
+		}
+		return body;
+	}
+
+	/**
+	 * Inflater stream that also ends the inflater passed in when closed;
+	 * <tt>InflaterInputStream</tt> only ends the ones it created itself, and
+	 * an inflater that is not ended keeps its native memory until it is
+	 * finalized.
+	 */
+	private static class OwnedInflaterInputStream extends InflaterInputStream {
+
+		private boolean closed;
+
+		OwnedInflaterInputStream(InputStream in, Inflater inflater) {
+			super(in, inflater, BUFFER_SIZE);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				super.close();
+			} finally {
+				inf.end();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of body bytes received from the server so far.
+	 */
+	public long getTransferredBytes() {
+		return transferred.getCount();
+	}
+
+	/**
+	 * Returns the time spent waiting for body bytes from the server so far,
+	 * in nanoseconds.
+	 */
+	public long getTransferNanos() {
+		return transferred.getReadNanos();
+	}
+
+	/**
+	 * Returns the number of decompressed bytes read so far.
+	 */
+	public long getDecodedBytes() {
+		return decoded.getCount();
+	}
+
+	/**
+	 * Returns the Content-Encoding of the response, or <tt>null</tt> if the
+	 * body was sent uncompressed.
+	 */
+	public String getContentEncoding() {
+		return contentEncoding;
+	}
+
+	/**
+	 * Returns the time spent opening the connection in nanoseconds, 0 if a
+	 * pooled connection was reused.
+	 */
+	public long getConnectNanos() {
+		return connectNanos;
+	}
+
+	/**
+	 * Returns the time from starting the request to receiving the response
+	 * headers in nanoseconds. This includes the connect time and the time
+	 * the server spent rendering the report.
+	 */
+	public long getFirstByteNanos() {
+		return firstByteNanos;
+	}
+}
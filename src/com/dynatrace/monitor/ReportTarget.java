@@ -0,0 +1,111 @@
+package com.dynatrace.monitor;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A (host, system profile, filter) combination queried by the monitor.
+ *
+ * Additional targets are configured one per line as
+ * <tt>host[:port];profile[;filter]</tt>, where the optional filter is a
+ * report filter such as <tt>ag:AgentGroups?Frontend</tt> that is appended as
+ * <tt>&amp;filter=</tt> to the report URL. The results of each additional
+ * target are published under their own dynamic measure key,
+ * <tt>&lt;split&gt;@&lt;host&gt;/&lt;profile&gt;</tt>.
+ */
+public class ReportTarget {
+
+	private final String host;
+	private final int port;
+	private final String profile;
+	private final String reportPath;
+	private final String dimension;
+
+	public ReportTarget(String host, int port, String profile, String reportPath, String dimension) {
+		this.host = host;
+		this.port = port;
+		this.profile = profile;
+		this.reportPath = reportPath;
+		this.dimension = dimension;
+	}
+
+	/**
+	 * Parses the additional targets configuration.
+	 *
+	 * @param config
+	 *            one target per line, <tt>host[:port];profile[;filter]</tt>
+	 * @param defaultPort
+	 *            the port used when a line does not name one
+	 * @param reportBase
+	 *            the report URL up to and excluding the source parameter
+	 * @param timeframeFilter
+	 *            the timeframe filter parameter appended after the source
+	 * @param splitOption
+	 *            the split attribute, used as prefix of the dimension key
+	 */
+	public static List<ReportTarget> parse(String config, int defaultPort, String reportBase, String timeframeFilter, String splitOption) {
+		List<ReportTarget> targets = new ArrayList<ReportTarget>();
+		if (config == null) {
+			return targets;
+		}
+		for (String line : config.split("[\\r\\n]+")) {
+			line = line.trim();
+			if (line.length() == 0 || line.startsWith("#")) {
+				continue;
+			}
+			String[] fields = line.split(";", 3);
+			if (fields.length < 2 || fields[0].trim().length() == 0 || fields[1].trim().length() == 0) {
+				throw new IllegalArgumentException("Invalid target '" + line + "', expected host[:port];profile[;filter]");
+			}
+			String host = fields[0].trim();
+			int port = defaultPort;
+			int colon = host.lastIndexOf(':');
+			if (colon > 0) {
+				port = Integer.parseInt(host.substring(colon + 1).trim());
+				host = host.substring(0, colon);
+			}
+			String profile = fields[1].trim();
+			String path = reportBase + "&source=live:" + profile + timeframeFilter;
+			if (fields.length > 2 && fields[2].trim().length() > 0) {
+				path = path + "&filter=" + fields[2].trim();
+			}
+			targets.add(new ReportTarget(host, port, profile, path, splitOption + "@" + host + "/" + profile));
+		}
+		return targets;
+	}
+
+	public URL getURL(String protocol) throws MalformedURLException {
+		return new URL(protocol, host, port, reportPath);
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public String getProfile() {
+		return profile;
+	}
+
+	public String getReportPath() {
+		return reportPath;
+	}
+
+	/**
+	 * Returns the dynamic measure key the results of this target are
+	 * published under.
+	 */
+	public String getDimension() {
+		return dimension;
+	}
+
+	@Override
+	public String toString() {
+		return dimension;
+	}
+}
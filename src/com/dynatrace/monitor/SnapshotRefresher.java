@@ -0,0 +1,147 @@
+package com.dynatrace.monitor;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the snapshots of a set of reports fresh in the background
+ * (stale-while-revalidate).
+ *
+ * Every report is reloaded on its own schedule, with a fixed delay between
+ * the end of one load and the start of the next, so a slow server delays
+ * the refreshes instead of piling them up. The latest snapshot of a report
+ * is swapped in atomically when a load completes; readers never wait for a
+ * load. A failed load keeps the previous snapshot and marks the report as
+ * failing until the next load succeeds.
+ */
+public class SnapshotRefresher {
+
+	private static final Logger log = Logger.getLogger(SnapshotRefresher.class.getName());
+
+	private final ScheduledThreadPoolExecutor scheduler;
+	private final long interval;
+	private final Map<String, Slot> slots = new ConcurrentHashMap<String, Slot>();
+
+	private static class Slot {
+		final AtomicReference<RefreshedSnapshot> latest = new AtomicReference<RefreshedSnapshot>();
+		volatile boolean failing;
+	}
+
+	/**
+	 * A snapshot together with the cost of loading it.
+	 */
+	public static class RefreshedSnapshot {
+		private final TierSnapshot snapshot;
+		private final CycleStats stats;
+		private final long refreshedAt = System.currentTimeMillis();
+		private final AtomicBoolean published = new AtomicBoolean();
+
+		public RefreshedSnapshot(TierSnapshot snapshot, CycleStats stats) {
+			this.snapshot = snapshot;
+			this.stats = stats;
+		}
+
+		public TierSnapshot getSnapshot() {
+			return snapshot;
+		}
+
+		public CycleStats getStats() {
+			return stats;
+		}
+
+		/**
+		 * Returns the time since the load completed, in milliseconds.
+		 */
+		public long getAge() {
+			return System.currentTimeMillis() - refreshedAt;
+		}
+
+		/**
+		 * Marks the snapshot as published.
+		 *
+		 * @return <tt>true</tt> the first time it is called
+		 */
+		public boolean markPublished() {
+			return published.compareAndSet(false, true);
+		}
+	}
+
+	/**
+	 * @param threads
+	 *            the maximum number of concurrent loads
+	 * @param interval
+	 *            the delay between the end of a load and the start of the
+	 *            next load of the same report, in milliseconds
+	 * @param threadFactory
+	 *            creates the refresh threads
+	 */
+	public SnapshotRefresher(int threads, long interval, ThreadFactory threadFactory) {
+		this.interval = interval;
+		scheduler = new ScheduledThreadPoolExecutor(Math.max(1, threads), threadFactory);
+		scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+	}
+
+	/**
+	 * Starts refreshing a report. The first load starts right away.
+	 *
+	 * @param key
+	 *            identifies the report, e.g. its dynamic measure key
+	 * @param loader
+	 *            loads and indexes the report; called on a refresh thread
+	 */
+	public void add(final String key, final Callable<RefreshedSnapshot> loader) {
+		final Slot slot = new Slot();
+		if (slots.put(key, slot) != null) {
+			throw new IllegalArgumentException("Report " + key + " is already refreshed");
+		}
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					slot.latest.set(loader.call());
+					slot.failing = false;
+					log.finer("Refreshed report for " + key);
+				} catch (Exception e) {
+					// an exception escaping the task would cancel all further refreshes
+					slot.failing = true;
+					log.warning("Refresh of report for " + key + " failed: " + e);
+				}
+			}
+		}, 0, interval, TimeUnit.MILLISECONDS);
+		if (log.isLoggable(Level.FINE)) {
+			log.fine("Refreshing report for " + key + " every " + interval + " ms");
+		}
+	}
+
+	/**
+	 * Returns the latest snapshot of a report, or <tt>null</tt> if no load
+	 * has completed yet.
+	 */
+	public RefreshedSnapshot getLatest(String key) {
+		Slot slot = slots.get(key);
+		return slot == null ? null : slot.latest.get();
+	}
+
+	/**
+	 * Returns whether the last load of a report failed.
+	 */
+	public boolean isFailing(String key) {
+		Slot slot = slots.get(key);
+		return slot != null && slot.failing;
+	}
+
+	/**
+	 * Stops all refreshes and interrupts running loads.
+	 */
+	public void shutdown() {
+		scheduler.shutdownNow();
+		slots.clear();
+	}
+}
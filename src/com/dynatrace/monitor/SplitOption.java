@@ -0,0 +1,48 @@
+package com.dynatrace.monitor;
+
+/**
+ * The agent attribute tiers are split by.
+ */
+public enum SplitOption {
+
+	NAME("name", "Agent Name"),
+	GROUP("group", "Agent Group"),
+	TECHNOLOGY("technology", "Technology");
+
+	private final String key;
+	private final String label;
+
+	private SplitOption(String key, String label) {
+		this.key = key;
+		this.label = label;
+	}
+
+	/**
+	 * Returns the dynamic measure key the tiers are published under, e.g.
+	 * <tt>group</tt>.
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * Returns the option as shown in the plugin configuration, e.g.
+	 * <tt>Agent Group</tt>.
+	 */
+	public String getLabel() {
+		return label;
+	}
+
+	/**
+	 * Returns the option for a plugin configuration or dynamic measure key
+	 * value; unknown values split by agent name.
+	 */
+	public static SplitOption forName(String name) {
+		for (SplitOption option : values()) {
+			if (option.label.equals(name) || option.key.equals(name)) {
+				return option;
+			}
+		}
+		return NAME;
+	}
+}
@@ -0,0 +1,657 @@
+package com.dynatrace.monitor;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-cycle index of a TransactionFlow report grouped by split key.
+ *
+ * The index is built in one pass over the agents and one pass over the
+ * links of a {@link TransactionFlowReport}. Agents are grouped by exact
+ * match of their split attribute (name, group or technology) and the
+ * values of every tier are kept in primitive arrays, so all measures can be
+ * read without rescanning the report.
+ *
+ * Transaction counts are attributed to the tier of the callee agent. The
+ * transaction count rate is the share of a tier in the transactions of its
+ * rate family: all agents with the same tier name (the agent name without
+ * host and port) when splitting by agent name, otherwise all tiers of the
+ * report.
+ *
+ * The calls between agents are rolled up from the {@link CallGraph} of the
+ * report into calls between tiers, so every split option reuses the links
+ * resolved once per report. The call rate of an edge is its share in the
+ * calls made by the caller tier.
+ *
+ * Tier values are averages over the agents of the tier, optionally weighted
+ * by the transaction count of every agent, that is the calls it received
+ * over the links of the report, and the minimum and maximum over
+ * the agents are kept alongside. On request, the distribution of a value
+ * over the transactions of a tier is estimated from the minimum, average,
+ * maximum and transaction count of its agents into a {@link LogHistogram},
+ * from which tier percentiles are read. Snapshots of consecutive timeframes can be
+ * merged into the snapshot of the whole timeframe, see
+ * {@link #merge(TierSnapshot[], int)}, and the tiers of a snapshot can be
+ * limited to the highest ranking ones, see {@link #limit(int, int, int)}.
+ */
+public class TierSnapshot {
+
+	/** Merge the tier values by transaction count weighted average. */
+	public static final int AVERAGE = 0;
+	/** Merge the tier values by taking the minimum. */
+	public static final int MINIMUM = 1;
+	/** Merge the tier values by taking the maximum. */
+	public static final int MAXIMUM = 2;
+
+	/** Rank tiers by transaction count, see {@link #limit(int, int, int)}. */
+	public static final int RANK_TRANSACTIONS = 3;
+
+	/** The tier holding the tiers left out by {@link #limit(int, int, int)}. */
+	public static final String OTHER_TIER = "(other)";
+
+	/** Separates the caller and callee tier in the split value of a call. */
+	public static final String EDGE_SEPARATOR = " -> ";
+
+	private final SplitOption splitOption;
+	private final long createdAt = System.currentTimeMillis();
+	private final int agentCount;
+	private final String[] tiers;
+	private final int[] agentsPerTier;
+	private final double[][] sums;
+	private final double[][] weights;
+	private final double[][] minimums;
+	private final double[][] maximums;
+	private final double[] transactionCounts;
+	private final boolean[] hasTransactions;
+	private final double[] rateFamilySums;
+	private final LogHistogram[][] distributions = new LogHistogram[3][];
+	private CallGraph calls;
+	private double[] callerSums;
+
+	private TierSnapshot(SplitOption splitOption, int agentCount, String[] tiers) {
+		this.splitOption = splitOption;
+		this.agentCount = agentCount;
+		this.tiers = tiers;
+		int tierCount = tiers.length;
+		agentsPerTier = new int[tierCount];
+		sums = new double[3][tierCount];
+		weights = new double[3][tierCount];
+		minimums = new double[3][tierCount];
+		maximums = new double[3][tierCount];
+		for (int field = 0; field < 3; field++) {
+			Arrays.fill(minimums[field], Double.NaN);
+			Arrays.fill(maximums[field], Double.NaN);
+		}
+		transactionCounts = new double[tierCount];
+		hasTransactions = new boolean[tierCount];
+		rateFamilySums = new double[tierCount];
+	}
+
+	/**
+	 * Builds the index for a report that keeps the response, exec and exec
+	 * CPU values at the field indexes {@link TransactionFlowReport#RESPONSE},
+	 * {@link TransactionFlowReport#EXEC} and {@link TransactionFlowReport#EXEC_CPU}.
+	 *
+	 * @param splitOption
+	 *            the agent attribute the tiers are split by
+	 */
+	public static TierSnapshot build(TransactionFlowReport report, SplitOption splitOption) {
+		return build(report, splitOption, new int[] { TransactionFlowReport.RESPONSE, TransactionFlowReport.EXEC, TransactionFlowReport.EXEC_CPU });
+	}
+
+	/**
+	 * Builds the index for a report.
+	 *
+	 * @param splitOption
+	 *            the agent attribute the tiers are split by
+	 * @param reportFields
+	 *            the report field indexes of the response, exec and exec CPU
+	 *            values, in that order
+	 */
+	public static TierSnapshot build(TransactionFlowReport report, SplitOption splitOption, int[] reportFields) {
+		return build(report, splitOption, reportFields, false);
+	}
+
+	/**
+	 * Builds the index for a report.
+	 *
+	 * @param splitOption
+	 *            the agent attribute the tiers are split by
+	 * @param reportFields
+	 *            the report field indexes of the response, exec and exec CPU
+	 *            values, in that order
+	 * @param countWeighted
+	 *            whether the tier averages are weighted by the transaction
+	 *            count of the agents; agents without transactions are left
+	 *            out. The agents of a tier without any link data count once.
+	 */
+	public static TierSnapshot build(TransactionFlowReport report, SplitOption splitOption, int[] reportFields, boolean countWeighted) {
+		return build(report, splitOption, reportFields, countWeighted, null);
+	}
+
+	/**
+	 * Builds the index for a report.
+	 *
+	 * @param splitOption
+	 *            the agent attribute the tiers are split by
+	 * @param reportFields
+	 *            the report field indexes of the response, exec and exec CPU
+	 *            values, in that order
+	 * @param countWeighted
+	 *            whether the tier averages are weighted by the transaction
+	 *            count of the agents; agents without transactions are left
+	 *            out. The agents of a tier without any link data count once.
+	 * @param distributionFields
+	 *            for the response, exec and exec CPU values, the report field
+	 *            indexes of the minimum, average and maximum from which the
+	 *            tier distribution is estimated, or <tt>null</tt> for values
+	 *            without distribution. The distributions are always weighted
+	 *            by the transaction count.
+	 */
+	public static TierSnapshot build(TransactionFlowReport report, SplitOption splitOption, int[] reportFields, boolean countWeighted, int[][] distributionFields) {
+
+		int agentCount = report.getAgentCount();
+		int[] agentTier = new int[agentCount];
+		IdIndex tierIndex = new IdIndex(agentCount);
+		String[] tierKeys = new String[Math.max(agentCount, 1)];
+		int tierCount = 0;
+
+		for (int i = 0; i < agentCount; i++) {
+			int id = report.getSplitId(i, splitOption);
+			if (id < 0) {
+				agentTier[i] = -1;
+				continue;
+			}
+			int tier = tierIndex.get(id);
+			if (tier < 0) {
+				tier = tierCount;
+				tierIndex.put(id, tier);
+				tierKeys[tierCount++] = report.getSplitValue(i, splitOption);
+			}
+			agentTier[i] = tier;
+		}
+
+		TierSnapshot snapshot = new TierSnapshot(splitOption, agentCount, Arrays.copyOf(tierKeys, tierCount));
+
+		// transaction counts of the agents are the remoting counts of the links into them
+		CallGraph agentCalls = report.getCallGraph();
+		boolean[] tierCalled = new boolean[tierCount];
+		for (int i = 0; i < agentCount; i++) {
+			if (agentTier[i] >= 0 && agentCalls.isCalled(i)) {
+				tierCalled[agentTier[i]] = true;
+			}
+		}
+		for (int field = 0; distributionFields != null && field < distributionFields.length; field++) {
+			if (distributionFields[field] != null) {
+				snapshot.distributions[field] = new LogHistogram[tierCount];
+			}
+		}
+		for (int i = 0; i < agentCount; i++) {
+			int tier = agentTier[i];
+			if (tier < 0) {
+				continue;
+			}
+			snapshot.agentsPerTier[tier]++;
+			double count = tierCalled[tier] ? agentCalls.getIncomingCount(i) : 1;
+			for (int field = 0; field < snapshot.distributions.length && count > 0; field++) {
+				if (snapshot.distributions[field] != null) {
+					int[] range = distributionFields[field];
+					snapshot.getDistribution(field, tier, true).add(report.getValue(range[0], i), report.getValue(range[1], i), report.getValue(range[2], i), count);
+				}
+			}
+			double weight = countWeighted ? count : 1;
+			if (weight <= 0) {
+				continue;
+			}
+			for (int field = 0; field < snapshot.sums.length; field++) {
+				double value = report.getValue(reportFields[field], i);
+				if (!Double.isNaN(value)) {
+					snapshot.sums[field][tier] += value * weight;
+					snapshot.weights[field][tier] += weight;
+					snapshot.minimums[field][tier] = min(snapshot.minimums[field][tier], value);
+					snapshot.maximums[field][tier] = max(snapshot.maximums[field][tier], value);
+				}
+			}
+		}
+
+		CallGraph calls = report.getCallGraph().rollUp(agentTier, tierCount);
+		for (int tier = 0; tier < tierCount; tier++) {
+			snapshot.transactionCounts[tier] = calls.getIncomingCount(tier);
+			snapshot.hasTransactions[tier] = calls.isCalled(tier);
+		}
+
+		snapshot.setCalls(calls);
+		snapshot.computeRateFamilies();
+		return snapshot;
+	}
+
+	/**
+	 * Merges the snapshots of consecutive, non-overlapping timeframes into
+	 * the snapshot of the whole timeframe. Transaction counts are summed and
+	 * the rates recomputed from the sums. Tier values are merged by
+	 * weighted average, so the result is exact when the parts were built
+	 * with count weighting, or as the minimum or maximum of the tier values
+	 * of the parts. The tier value of a part is computed the same way for
+	 * every merge, so e.g. the minimum over the parts of the average
+	 * <tt>response_min</tt> of the agents keeps the meaning of the tier
+	 * value of a single report.
+	 *
+	 * @param parts
+	 *            the snapshots, all with the same split option; <tt>null</tt>
+	 *            elements are skipped
+	 * @param merge
+	 *            one of {@link #AVERAGE}, {@link #MINIMUM} or {@link #MAXIMUM}
+	 * @return the merged snapshot, or <tt>null</tt> if there are no parts
+	 */
+	public static TierSnapshot merge(TierSnapshot[] parts, int merge) {
+
+		SplitOption splitOption = null;
+		int agentCount = 0;
+		Map<String, Integer> tierIndex = new LinkedHashMap<String, Integer>();
+		for (TierSnapshot part : parts) {
+			if (part == null) {
+				continue;
+			}
+			splitOption = part.splitOption;
+			agentCount = Math.max(agentCount, part.agentCount);
+			for (String tier : part.tiers) {
+				if (!tierIndex.containsKey(tier)) {
+					tierIndex.put(tier, tierIndex.size());
+				}
+			}
+		}
+		if (splitOption == null) {
+			return null;
+		}
+
+		TierSnapshot merged = new TierSnapshot(splitOption, agentCount, tierIndex.keySet().toArray(new String[tierIndex.size()]));
+		int edgeCount = 0;
+		for (TierSnapshot part : parts) {
+			edgeCount += part == null ? 0 : part.calls.getEdgeCount();
+		}
+		int[] callers = new int[edgeCount];
+		int[] callees = new int[edgeCount];
+		double[] counts = new double[edgeCount];
+		int edges = 0;
+		double[][] extremes = new double[merged.sums.length][merged.tiers.length];
+		for (double[] fieldExtremes : extremes) {
+			Arrays.fill(fieldExtremes, Double.NaN);
+		}
+		for (TierSnapshot part : parts) {
+			if (part == null) {
+				continue;
+			}
+			for (int edge = 0; edge < part.calls.getEdgeCount(); edge++) {
+				callers[edges] = tierIndex.get(part.tiers[part.calls.getCaller(edge)]);
+				callees[edges] = tierIndex.get(part.tiers[part.calls.getCallee(edge)]);
+				counts[edges] = part.calls.getCount(edge);
+				edges++;
+			}
+			for (int tier = 0; tier < part.tiers.length; tier++) {
+				int target = tierIndex.get(part.tiers[tier]);
+				merged.agentsPerTier[target] = Math.max(merged.agentsPerTier[target], part.agentsPerTier[tier]);
+				merged.transactionCounts[target] += part.transactionCounts[tier];
+				merged.hasTransactions[target] |= part.hasTransactions[tier];
+				for (int field = 0; field < merged.distributions.length; field++) {
+					LogHistogram distribution = part.getDistribution(field, tier, false);
+					if (distribution != null) {
+						if (merged.distributions[field] == null) {
+							merged.distributions[field] = new LogHistogram[merged.tiers.length];
+						}
+						merged.getDistribution(field, target, true).merge(distribution);
+					}
+				}
+				for (int field = 0; field < merged.sums.length; field++) {
+					merged.sums[field][target] += part.sums[field][tier];
+					merged.weights[field][target] += part.weights[field][tier];
+					merged.minimums[field][target] = min(merged.minimums[field][target], part.minimums[field][tier]);
+					merged.maximums[field][target] = max(merged.maximums[field][target], part.maximums[field][tier]);
+					if (part.weights[field][tier] > 0) {
+						double value = part.getAverage(field, tier);
+						extremes[field][target] = merge == MINIMUM ? min(extremes[field][target], value) : max(extremes[field][target], value);
+					}
+				}
+			}
+		}
+
+		if (merge != AVERAGE) {
+			// publish the extreme tier value of the parts as the tier value
+			for (int field = 0; field < merged.sums.length; field++) {
+				for (int tier = 0; tier < merged.tiers.length; tier++) {
+					boolean present = !Double.isNaN(extremes[field][tier]);
+					merged.sums[field][tier] = present ? extremes[field][tier] : 0;
+					merged.weights[field][tier] = present ? 1 : 0;
+				}
+			}
+		}
+		merged.setCalls(CallGraph.of(merged.tiers.length, callers, callees, counts, edges));
+		merged.computeRateFamilies();
+		return merged;
+	}
+
+	/**
+	 * Returns a snapshot with at most <tt>maxTiers</tt> tiers: the
+	 * <tt>maxTiers - 1</tt> tiers ranking highest and {@link #OTHER_TIER},
+	 * which holds the rest as if their agents formed one tier. The ranking
+	 * tiers are selected in one pass over the tiers with a bounded heap, so
+	 * the cost does not depend on how many tiers are left out; they keep
+	 * their order and transaction count rate. Calls from and to the tiers
+	 * left out become calls from and to {@link #OTHER_TIER}.
+	 *
+	 * @param maxTiers
+	 *            the maximum number of tiers; 0 for no limit
+	 * @param rank
+	 *            the value the tiers are ranked by, highest first: the
+	 *            average of {@link TransactionFlowReport#RESPONSE},
+	 *            {@link TransactionFlowReport#EXEC} or
+	 *            {@link TransactionFlowReport#EXEC_CPU}, or
+	 *            {@link #RANK_TRANSACTIONS}
+	 * @param merge
+	 *            how the values of the tiers left out are combined:
+	 *            {@link #AVERAGE} as if their agents formed one tier,
+	 *            {@link #MINIMUM} or {@link #MAXIMUM} as the extreme of their
+	 *            tier values
+	 * @return this snapshot if it has no more than <tt>maxTiers</tt> tiers
+	 */
+	public TierSnapshot limit(int maxTiers, int rank, int merge) {
+
+		int tierCount = tiers.length;
+		if (maxTiers <= 0 || tierCount <= maxTiers) {
+			return this;
+		}
+		int keep = maxTiers - 1;
+		// min-heap of the highest ranking tiers seen so far, the lowest at the root
+		int[] heap = new int[keep];
+		int size = 0;
+		for (int tier = 0; tier < tierCount; tier++) {
+			if (size < keep) {
+				heap[size] = tier;
+				siftUp(heap, size++, rank);
+			}
+			else if (keep > 0 && outranks(tier, heap[0], rank)) {
+				heap[0] = tier;
+				siftDown(heap, size, rank);
+			}
+		}
+		Arrays.sort(heap, 0, size);
+
+		int[] tierGroups = new int[tierCount];
+		Arrays.fill(tierGroups, keep);
+		String[] limitedTiers = new String[keep + 1];
+		for (int i = 0; i < size; i++) {
+			tierGroups[heap[i]] = i;
+			limitedTiers[i] = tiers[heap[i]];
+		}
+		limitedTiers[keep] = OTHER_TIER;
+
+		TierSnapshot limited = new TierSnapshot(splitOption, agentCount, limitedTiers);
+		double[] otherExtremes = new double[sums.length];
+		Arrays.fill(otherExtremes, Double.NaN);
+		double total = 0;
+		for (int tier = 0; tier < tierCount; tier++) {
+			int target = tierGroups[tier];
+			total += transactionCounts[tier];
+			limited.agentsPerTier[target] += agentsPerTier[tier];
+			limited.transactionCounts[target] += transactionCounts[tier];
+			limited.hasTransactions[target] |= hasTransactions[tier];
+			limited.rateFamilySums[target] = rateFamilySums[tier];
+			for (int field = 0; field < distributions.length; field++) {
+				LogHistogram distribution = getDistribution(field, tier, false);
+				if (distribution != null) {
+					if (limited.distributions[field] == null) {
+						limited.distributions[field] = new LogHistogram[keep + 1];
+					}
+					limited.getDistribution(field, target, true).merge(distribution);
+				}
+			}
+			for (int field = 0; field < sums.length; field++) {
+				limited.sums[field][target] += sums[field][tier];
+				limited.weights[field][target] += weights[field][tier];
+				limited.minimums[field][target] = min(limited.minimums[field][target], minimums[field][tier]);
+				limited.maximums[field][target] = max(limited.maximums[field][target], maximums[field][tier]);
+				if (target == keep && weights[field][tier] > 0) {
+					double value = getAverage(field, tier);
+					otherExtremes[field] = merge == MINIMUM ? min(otherExtremes[field], value) : max(otherExtremes[field], value);
+				}
+			}
+		}
+		// the other tier mixes rate families, so its rate is its share in all transactions
+		limited.rateFamilySums[keep] = total;
+		if (merge != AVERAGE) {
+			// the extreme tier value of the tiers left out, like a window merge
+			for (int field = 0; field < limited.sums.length; field++) {
+				boolean present = !Double.isNaN(otherExtremes[field]);
+				limited.sums[field][keep] = present ? otherExtremes[field] : 0;
+				limited.weights[field][keep] = present ? 1 : 0;
+			}
+		}
+		limited.setCalls(calls.rollUp(tierGroups, keep + 1));
+		return limited;
+	}
+
+	private double getRankValue(int tier, int rank) {
+		return rank == RANK_TRANSACTIONS ? transactionCounts[tier] : getAverage(rank, tier);
+	}
+
+	/**
+	 * Returns whether tier <tt>a</tt> ranks higher than tier <tt>b</tt>; ties
+	 * go to the tier that comes first in the report.
+	 */
+	private boolean outranks(int a, int b, int rank) {
+		double valueA = getRankValue(a, rank);
+		double valueB = getRankValue(b, rank);
+		return valueA > valueB || (valueA == valueB && a < b);
+	}
+
+	private void siftUp(int[] heap, int position, int rank) {
+		int tier = heap[position];
+		while (position > 0) {
+			int parent = (position - 1) >>> 1;
+			if (!outranks(heap[parent], tier, rank)) {
+				break;
+			}
+			heap[position] = heap[parent];
+			position = parent;
+		}
+		heap[position] = tier;
+	}
+
+	private void siftDown(int[] heap, int size, int rank) {
+		int tier = heap[0];
+		int position = 0;
+		while (true) {
+			int child = 2 * position + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && outranks(heap[child], heap[child + 1], rank)) {
+				child++;
+			}
+			if (!outranks(tier, heap[child], rank)) {
+				break;
+			}
+			heap[position] = heap[child];
+			position = child;
+		}
+		heap[position] = tier;
+	}
+
+	private LogHistogram getDistribution(int field, int tier, boolean create) {
+		LogHistogram[] fieldDistributions = distributions[field];
+		if (fieldDistributions == null) {
+			return null;
+		}
+		if (fieldDistributions[tier] == null && create) {
+			fieldDistributions[tier] = new LogHistogram();
+		}
+		return fieldDistributions[tier];
+	}
+
+	private static double min(double current, double value) {
+		return Double.isNaN(current) || value < current ? value : current;
+	}
+
+	private static double max(double current, double value) {
+		return Double.isNaN(current) || value > current ? value : current;
+	}
+
+	private void setCalls(CallGraph calls) {
+		this.calls = calls;
+		callerSums = calls.getOutgoingCounts();
+	}
+
+	private void computeRateFamilies() {
+		if (splitOption != SplitOption.NAME) {
+			double total = 0;
+			for (int tier = 0; tier < tiers.length; tier++) {
+				total += transactionCounts[tier];
+			}
+			Arrays.fill(rateFamilySums, total);
+			return;
+		}
+		Map<String, Double> familySums = new HashMap<String, Double>();
+		for (int tier = 0; tier < tiers.length; tier++) {
+			String family = getTierName(tiers[tier]);
+			Double sum = familySums.get(family);
+			familySums.put(family, (sum == null ? 0 : sum) + transactionCounts[tier]);
+		}
+		for (int tier = 0; tier < tiers.length; tier++) {
+			rateFamilySums[tier] = familySums.get(getTierName(tiers[tier]));
+		}
+	}
+
+	/**
+	 * Returns the tier name of a split value, i.e. the part before any
+	 * <tt>[host]</tt> or <tt>@host:port</tt> suffix.
+	 */
+	public static String getTierName(String splitValue) {
+		String[] parts = splitValue.split("@");
+		String[] parts2 = parts[0].split("\\[");
+		return parts2[0];
+	}
+
+	public SplitOption getSplitOption() {
+		return splitOption;
+	}
+
+	public int getAgentCount() {
+		return agentCount;
+	}
+
+	/**
+	 * Returns when the snapshot was built, in milliseconds; for a fetched
+	 * report, about the end of its timeframe.
+	 */
+	public long getCreatedAt() {
+		return createdAt;
+	}
+
+	public int getTierCount() {
+		return tiers.length;
+	}
+
+	public String getTier(int tier) {
+		return tiers[tier];
+	}
+
+	public int getAgentsInTier(int tier) {
+		return agentsPerTier[tier];
+	}
+
+	/**
+	 * Returns the average of a value over the agents of a tier, or 0 if no
+	 * agent of the tier reported the value.
+	 *
+	 * @param field
+	 *            one of the value constants of {@link TransactionFlowReport}
+	 */
+	public double getAverage(int field, int tier) {
+		double n = weights[field][tier];
+		return n > 0 ? sums[field][tier] / n : 0;
+	}
+
+	/**
+	 * Returns the smallest value reported by an agent of a tier, or
+	 * <tt>NaN</tt> if no agent reported the value.
+	 */
+	public double getMinimum(int field, int tier) {
+		return minimums[field][tier];
+	}
+
+	/**
+	 * Returns the largest value reported by an agent of a tier, or
+	 * <tt>NaN</tt> if no agent reported the value.
+	 */
+	public double getMaximum(int field, int tier) {
+		return maximums[field][tier];
+	}
+
+	/**
+	 * Returns whether the distribution of a value was estimated.
+	 *
+	 * @param field
+	 *            one of the value constants of {@link TransactionFlowReport}
+	 */
+	public boolean hasDistribution(int field) {
+		return distributions[field] != null;
+	}
+
+	/**
+	 * Returns the estimated distribution of a value over the transactions of
+	 * a tier, or <tt>null</tt> if it was not estimated or no agent of the
+	 * tier reported the value. The histogram must not be modified.
+	 */
+	public LogHistogram getDistribution(int field, int tier) {
+		return getDistribution(field, tier, false);
+	}
+
+	public boolean hasTransactions(int tier) {
+		return hasTransactions[tier];
+	}
+
+	public double getTransactionCount(int tier) {
+		return transactionCounts[tier];
+	}
+
+	/**
+	 * Returns the share of the tier in the transactions of its rate family in
+	 * percent, rounded to two decimals.
+	 */
+	public double getTransactionCountRate(int tier) {
+		return toRate(transactionCounts[tier], rateFamilySums[tier]);
+	}
+
+	/**
+	 * Returns the calls between the tiers; node IDs are tier indexes.
+	 */
+	public CallGraph getCalls() {
+		return calls;
+	}
+
+	/**
+	 * Returns the split value of an edge of {@link #getCalls()}, i.e. the
+	 * caller and callee tier joined by {@link #EDGE_SEPARATOR}.
+	 */
+	public String getEdge(int edge) {
+		return tiers[calls.getCaller(edge)] + EDGE_SEPARATOR + tiers[calls.getCallee(edge)];
+	}
+
+	/**
+	 * Returns the share of an edge of {@link #getCalls()} in the calls made by
+	 * its caller tier in percent, rounded to two decimals.
+	 */
+	public double getCallRate(int edge) {
+		return toRate(calls.getCount(edge), callerSums[calls.getCaller(edge)]);
+	}
+
+	private static double toRate(double count, double total) {
+		if (total <= 0) {
+			return 0;
+		}
+		double rate = count / total;
+		rate = Math.round(rate * 10000d) / 10000d;
+		return rate * 100;
+	}
+}
@@ -15,33 +15,39 @@
 package com.dynatrace.monitor;
 
 import com.dynatrace.diagnostics.pdk.*;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.io.File;
 import java.io.InputStream;
 import java.net.URL;
-import java.net.URLConnection;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.Set;
-
-import javax.net.ssl.*;
-import java.security.SecureRandom;
-import java.security.cert.X509Certificate;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathFactory;
-//import javax.xml.xpath.XPathVariableResolver;
-import javax.xml.namespace.QName;
 
 import java.util.*; 
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.w3c.dom.Document;
+import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.w3c.dom.NamedNodeMap;
 
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.http.client.ClientProtocolException;
 import java.io.IOException;
 
@@ -57,22 +63,89 @@ public class TierTimeMonitor implements Monitor {
 	private static final String MSR_ExecCPUTime = "Execution CPU Time";
 	private static final String MSR_TransactionCount = "Transaction Count";
 	private static final String MSR_TransactionCountRate = "Transaction Count Rate";
+	private static final String METRIC_GROUP_PERCENTILES = "Tier Percentiles";
+	private static final String[] MSR_Percentiles = { "Response Time Percentile", "Execution Time Percentile", "Execution CPU Time Percentile" };
+	private static final String PERCENTILE = "Percentile";
+	private static final String METRIC_GROUP_CALLS = "Tier Calls";
+	private static final String MSR_CallCount = "Call Count";
+	private static final String MSR_CallRate = "Call Rate";
+	private static final String METRIC_GROUP_HEALTH = "Tier Monitor Health";
+	private static final String MSR_ConnectTime = "Connect Time";
+	private static final String MSR_FirstByteTime = "Time to First Byte";
+	private static final String MSR_DownloadBytes = "Download Bytes";
+	private static final String MSR_DownloadTime = "Download Time";
+	private static final String MSR_ParseTime = "Parse Time";
+	private static final String MSR_AgentsProcessed = "Agents Processed";
+	private static final String MSR_TiersProcessed = "Tiers Processed";
+	private static final String MSR_MeasuresWritten = "Measures Written";
+	private static final String MSR_MeasuresSuppressed = "Measures Suppressed";
+	private static final String MSR_ExportDropped = "Export Dropped";
+	private static final String MSR_FetchSkipped = "Fetch Skipped";
+	private static final String MSR_FetchBackoff = "Fetch Backoff";
+	private static final String MSR_CycleTime = "Cycle Time";
+	private static final String MSR_SnapshotAge = "Snapshot Age";
+	private static final String MSR_SnapshotStale = "Snapshot Stale";
+	private static final int HANDLE_IDLE_CYCLES = 5;
+	private static final int DEADLINE_CHECK_INTERVAL = 256;
+	private static final String[] AGGREGATIONS = { "min", "avg", "max" };
+	private static final String AGENTS_XPATH = "/dashboardreport/data/admdashlet/adm/agent";
+	private static final String LINKS_XPATH = "/dashboardreport/data/admdashlet/adm_links/agent";
+	private static final String REPORT_PATH = "/rest/management/reports/create/TransactionFlow?type=XML&format=XML+Export";
 
 	//variables
 	private Collection<MonitorMeasure>  measures  = null;
-	private URLConnection connection;
+	private ReportClient reportClient;
 	private String urlprotocol;
 	private int urlport;
 	private String dynaTraceURL;
 	private String username;
 	private String password;
+	private String basicAuth;
+	private String cacheCredentials;
+	private URL overviewurl;
+	private ReportTarget primaryTarget;
 	private String responseTimeMeasure;
 	private String execTimeMeasure;
 	private String execCPUTimeMeasure;
 	private String transactionCountMeasure;
-	private MonitorMeasure dynamicMeasure;
-	private NodeList xpathNodeList;	
-	private String splitOption;
+	private final MeasureHandleCache handleCache = new MeasureHandleCache(HANDLE_IDLE_CYCLES);
+	private final NameDictionary names = new NameDictionary(HANDLE_IDLE_CYCLES);
+	private CycleStats cycleStats;
+	private Deadline deadline;
+	private long executionTimeout;
+	private SplitOption splitOption;
+	private boolean streamingParser;
+	private ThreadLocal<DomExtractor> domExtractors;
+	private TransactionFlowReader reportReader;
+	private int[] reportFields;
+	private boolean countWeighted;
+	private int[][] distributionFields;
+	private Map<String, PercentileHorizon> horizons;
+	private int maxSplits;
+	private int splitRanking;
+	private long percentileHorizon;
+	private long sharedCacheTTL;
+	private int sharedCacheSize;
+	private List<ReportTarget> additionalTargets;
+	private long targetTimeout;
+	private ThreadPoolExecutor fetchExecutor;
+	private final Map<String, InFlightFetch> inFlightFetches = new HashMap<String, InFlightFetch>();
+	private boolean asyncRefresh;
+	private long refreshInterval;
+	private long maxStaleness;
+	private int maxParallelFetches;
+	private SnapshotRefresher refresher;
+	private Map<String, TierWindow> windows;
+	private ReportRecorder recorder;
+	private MetricSink exportSink;
+	private long exportDroppedReported;
+	private AdaptivePoller poller;
+	private boolean fetchSkipped;
+	private String exportName;
+	private long exportTimestamp;
+	private long windowLength;
+	private long slotLength;
+	private int windowMerge;
 
 	/**
 	 * Initializes the Plugin. 
@@ -119,24 +192,126 @@ public class TierTimeMonitor implements Monitor {
 		transactionCountMeasure = "remoting_count"; // new code for count
 	
 		//determine splitting (Agent Name / Agent Group / Technology)
-		splitOption = env.getConfigString("splitChoice");
-		log.fine("split results by: " + splitOption);
-		if (splitOption.equals("Agent Group")){
-			splitOption = "group";}
-		else if (splitOption.equals("Agent Name")){
-			splitOption = "name";}
-		else if (splitOption.equals("Technology")){
-			splitOption = "technology";}
-		log.finer("splitOption: " + splitOption);
+		log.fine("split results by: " + env.getConfigString("splitChoice"));
+		splitOption = SplitOption.forName(env.getConfigString("splitChoice"));
+		log.finer("splitOption: " + splitOption.getKey());
+		
+		//determine parser (Streaming / DOM)
+		streamingParser = !"DOM".equals(env.getConfigString("parserMode"));
+		log.finer("streamingParser: " + streamingParser);
+		if (!streamingParser) {
+			//document builders and XPath expressions are not thread-safe; every fetch thread compiles its own once
+			domExtractors = new ThreadLocal<DomExtractor>() {
+				@Override
+				protected DomExtractor initialValue() {
+					try {
+						return new DomExtractor();
+					} catch (Exception e) {
+						throw new IllegalStateException("Cannot create the DOM report parser", e);
+					}
+				}
+			};
+			domExtractors.get();
+		}
+		
+		//determine incremental window: fetch only the last slot and aggregate the window locally
+		String timeframeFilter = env.getConfigString("timeframeFilter");
+		windows = null;
+		if (env.getConfigBoolean("incrementalWindow") != null && env.getConfigBoolean("incrementalWindow")) {
+			windowLength = parseTimeframe(timeframeFilter);
+			slotLength = parseTimeframe(env.getConfigString("deltaTimeframe"));
+			if (windowLength <= 0 || slotLength <= 0 || slotLength >= windowLength) {
+				log.warning("Incremental window disabled: Delta Timeframe must be shorter than Timeframe Filter");
+			}
+			else {
+				windows = new HashMap<String, TierWindow>();
+				windowMerge = aggregation.equals("min") ? TierSnapshot.MINIMUM : aggregation.equals("max") ? TierSnapshot.MAXIMUM : TierSnapshot.AVERAGE;
+				timeframeFilter = env.getConfigString("deltaTimeframe");
+				log.finer("Incremental window of " + windowLength + " ms in slots of " + slotLength + " ms");
+			}
+		}
+		
+		//determine tier aggregation: averages weighted by transaction count, percentiles from the agent min/avg/max
+		countWeighted = windows != null || (env.getConfigBoolean("countWeighted") != null && env.getConfigBoolean("countWeighted"));
+		boolean distributions = false;
+		for (String percentileMeasure : MSR_Percentiles) {
+			Collection<MonitorMeasure> percentileMeasures = env.getMonitorMeasures(METRIC_GROUP_PERCENTILES, percentileMeasure);
+			distributions |= percentileMeasures != null && !percentileMeasures.isEmpty();
+		}
+		Long configuredHorizon = env.getConfigLong("percentileHorizon");
+		percentileHorizon = TimeUnit.MINUTES.toMillis(configuredHorizon == null ? 0 : Math.max(0, configuredHorizon));
+		horizons = distributions && percentileHorizon > 0 ? new HashMap<String, PercentileHorizon>() : null;
+		log.finer("Count weighted: " + countWeighted + ", percentiles: " + distributions + ", horizon: " + percentileHorizon + " ms");
+		
+		//determine cardinality cap: the highest ranking splits plus one split for the rest
+		Long configuredMaxSplits = env.getConfigLong("maxSplits");
+		maxSplits = configuredMaxSplits == null || configuredMaxSplits <= 0 ? 0 : (int) Math.max(2, Math.min(Integer.MAX_VALUE, configuredMaxSplits));
+		String ranking = env.getConfigString("splitRanking");
+		if ("Response Time".equals(ranking)) {
+			splitRanking = TransactionFlowReport.RESPONSE;
+		}
+		else if ("Execution CPU Time".equals(ranking)) {
+			splitRanking = TransactionFlowReport.EXEC_CPU;
+		}
+		else {
+			splitRanking = TierSnapshot.RANK_TRANSACTIONS;
+		}
+		log.finer("Max splits: " + maxSplits + ", ranked by: " + ranking);
+		
+		//determine change-only publishing: skip values within the deadband of the last value written
+		if (env.getConfigBoolean("changesOnly") != null && env.getConfigBoolean("changesOnly")) {
+			Double configuredAbsolute = env.getConfigDouble("absoluteDeadband");
+			Double configuredRelative = env.getConfigDouble("relativeDeadband");
+			Long configuredHeartbeat = env.getConfigLong("heartbeatCycles");
+			handleCache.setChangesOnly(configuredAbsolute == null ? 0 : configuredAbsolute, configuredRelative == null ? 0 : configuredRelative,
+					configuredHeartbeat == null ? 10 : (int) Math.min(Integer.MAX_VALUE, configuredHeartbeat));
+			log.finer("Changes only, deadband: " + configuredAbsolute + " / " + configuredRelative + "%, heartbeat: " + configuredHeartbeat);
+		}
+		
+		//determine shared report cache; shared reports keep all aggregations
+		boolean sharedCache = env.getConfigBoolean("sharedCache") != null && env.getConfigBoolean("sharedCache");
+		if (sharedCache) {
+			Long configuredTTL = env.getConfigLong("sharedCacheTTL");
+			Long configuredSize = env.getConfigLong("sharedCacheSize");
+			sharedCacheTTL = TimeUnit.SECONDS.toMillis(configuredTTL == null ? 5 : configuredTTL);
+			sharedCacheSize = configuredSize == null ? 32 : Math.max(1, configuredSize.intValue());
+			log.finer("Shared report cache TTL: " + sharedCacheTTL + " ms, size: " + sharedCacheSize);
+			ReportCache.getShared().acquire();
+		}
+		else {
+			sharedCacheTTL = 0;
+		}
+		//percentiles need all aggregations as well
+		distributionFields = null;
+		if (sharedCache || distributions) {
+			String[] valueFields = new String[AGGREGATIONS.length * 3];
+			for (int i = 0; i < AGGREGATIONS.length; i++) {
+				valueFields[i] = "response_" + AGGREGATIONS[i];
+				valueFields[AGGREGATIONS.length + i] = "exec_" + AGGREGATIONS[i];
+				valueFields[2 * AGGREGATIONS.length + i] = "exec_cpu_" + AGGREGATIONS[i];
+			}
+			reportReader = new TransactionFlowReader(names, valueFields);
+			int aggregationIndex = Math.max(0, Arrays.asList(AGGREGATIONS).indexOf(aggregation));
+			reportFields = new int[] { aggregationIndex, AGGREGATIONS.length + aggregationIndex, 2 * AGGREGATIONS.length + aggregationIndex };
+			if (distributions) {
+				//AGGREGATIONS are min, avg, max
+				distributionFields = new int[][] { { 0, 1, 2 }, { AGGREGATIONS.length, AGGREGATIONS.length + 1, AGGREGATIONS.length + 2 },
+						{ 2 * AGGREGATIONS.length, 2 * AGGREGATIONS.length + 1, 2 * AGGREGATIONS.length + 2 } };
+			}
+		}
+		else {
+			reportReader = new TransactionFlowReader(names, responseTimeMeasure, execTimeMeasure, execCPUTimeMeasure);
+			reportFields = new int[] { TransactionFlowReport.RESPONSE, TransactionFlowReport.EXEC, TransactionFlowReport.EXEC_CPU };
+		}
 		
 		//Create Report Url
-		dynaTraceURL = "/rest/management/reports/create/TransactionFlow?type=XML&format=XML+Export";
+		dynaTraceURL = REPORT_PATH;
 		if (env.getConfigString("systemProfileFilter").equals("")){
 			log.severe("System Profile Filter entry is required");
 				return new Status(Status.StatusCode.ErrorInternal);
 		}
 		dynaTraceURL = dynaTraceURL + "&source=live:" + env.getConfigString("systemProfileFilter");
-		String timeframe = env.getConfigString("timeframeFilter").replaceAll(" ",":").toUpperCase();
+		String timeframe = timeframeFilter.replaceAll(" ",":").toUpperCase();
 		dynaTraceURL = dynaTraceURL +  "&filter=tf:OffsetTimeframe?" + timeframe;
 		
 		if (env.getConfigBoolean("filterBoolean")==true){
@@ -158,6 +333,96 @@ public class TierTimeMonitor implements Monitor {
 		}
 		
 		log.finer("Report URL: " + dynaTraceURL);
+		
+		//the report URL and the login only depend on the configuration
+		overviewurl = new URL(urlprotocol, env.getHost().getAddress(), urlport, dynaTraceURL);
+		primaryTarget = new ReportTarget(env.getHost().getAddress(), urlport, null, dynaTraceURL, splitOption.getKey());
+		String userpass = username + ":" + password;
+		//javax.xml.bind is gone from JDK 11; encodeBase64String of commons-codec 1.4 would add line breaks
+		basicAuth = "Basic " + new String(Base64.encodeBase64(userpass.getBytes("UTF-8")), "US-ASCII");
+		//shared reports are only reused with the same credentials; the key is logged, so it holds a hash of them
+		cacheCredentials = DigestUtils.sha256Hex(basicAuth);
+		
+		//additional (host, profile, filter) targets fetched in parallel
+		try {
+			additionalTargets = ReportTarget.parse(env.getConfigString("additionalTargets"), urlport, REPORT_PATH, "&filter=tf:OffsetTimeframe?" + timeframe, splitOption.getKey());
+		} catch (IllegalArgumentException e) {
+			log.severe("Additional Targets: " + e.getMessage());
+			return new Status(Status.StatusCode.ErrorInternal);
+		}
+		//background refresh: execute publishes the latest snapshot instead of fetching
+		asyncRefresh = env.getConfigBoolean("asyncRefresh") != null && env.getConfigBoolean("asyncRefresh");
+		if (asyncRefresh) {
+			Long configuredInterval = env.getConfigLong("refreshInterval");
+			Long configuredStaleness = env.getConfigLong("maxStaleness");
+			refreshInterval = TimeUnit.SECONDS.toMillis(configuredInterval == null ? 30 : Math.max(1, configuredInterval));
+			maxStaleness = TimeUnit.SECONDS.toMillis(configuredStaleness == null ? 120 : configuredStaleness);
+			log.finer("Background refresh every " + refreshInterval + " ms, max staleness: " + maxStaleness + " ms");
+		}
+		
+		maxParallelFetches = 1;
+		if (!additionalTargets.isEmpty()) {
+			Long configuredParallelFetches = env.getConfigLong("maxParallelFetches");
+			maxParallelFetches = configuredParallelFetches == null ? 4 : Math.max(1, configuredParallelFetches.intValue());
+			Long configuredTargetTimeout = env.getConfigLong("targetTimeout");
+			targetTimeout = TimeUnit.SECONDS.toMillis(configuredTargetTimeout == null ? 45 : configuredTargetTimeout);
+			if (!asyncRefresh) {
+				fetchExecutor = createFetchExecutor(maxParallelFetches);
+			}
+			log.fine("Additional targets: " + additionalTargets + ", parallel fetches: " + maxParallelFetches);
+		}
+		
+		//recording of the raw responses for replay
+		String recordDirectory = env.getConfigString("recordDirectory");
+		if (recordDirectory != null && recordDirectory.trim().length() > 0) {
+			Long configuredSegmentSize = env.getConfigLong("recordSegmentSize");
+			Long configuredSegments = env.getConfigLong("recordSegments");
+			long segmentSize = configuredSegmentSize == null ? 64 : Math.max(1, configuredSegmentSize);
+			int segments = configuredSegments == null ? 10 : (int) Math.max(0, Math.min(Integer.MAX_VALUE, configuredSegments));
+			recorder = new ReportRecorder(new File(recordDirectory.trim()), segmentSize << 20, segments);
+			log.fine("Recording reports to " + recordDirectory + ", segment size: " + segmentSize + " MB, segments kept: " + segments);
+		}
+		
+		//export of the published values to a local file, written in the background
+		String exportFile = env.getConfigString("exportFile");
+		if (exportFile != null && exportFile.trim().length() > 0) {
+			Long configuredFileSize = env.getConfigLong("exportFileSize");
+			Long configuredFiles = env.getConfigLong("exportFiles");
+			Long configuredQueueSize = env.getConfigLong("exportQueueSize");
+			Long configuredFlushInterval = env.getConfigLong("exportFlushInterval");
+			long fileSize = configuredFileSize == null ? 16 : Math.max(1, configuredFileSize);
+			int files = configuredFiles == null ? 5 : (int) Math.max(0, Math.min(Integer.MAX_VALUE, configuredFiles));
+			int queueSize = configuredQueueSize == null ? 10000 : (int) Math.max(1, Math.min(Integer.MAX_VALUE, configuredQueueSize));
+			long flushInterval = configuredFlushInterval == null ? 5 : Math.max(1, configuredFlushInterval);
+			exportSink = new FileMetricSink(new File(exportFile.trim()), fileSize << 20, files, queueSize, TimeUnit.SECONDS.toMillis(flushInterval));
+			log.fine("Exporting values to " + exportFile + ", file size: " + fileSize + " MB, files kept: " + files
+					+ ", queue size: " + queueSize + ", flush interval: " + flushInterval + " s");
+		}
+		
+		//adaptive polling: skip fetches while the server is slow or failing, and between incremental slots
+		poller = null;
+		if (env.getConfigBoolean("adaptivePolling") != null && env.getConfigBoolean("adaptivePolling")) {
+			if (asyncRefresh) {
+				log.warning("Adaptive Polling is ignored with Background Refresh, which fetches at the Refresh Interval");
+			}
+			else {
+				Long configuredSlowResponse = env.getConfigLong("slowResponse");
+				Long configuredMaxBackoff = env.getConfigLong("maxBackoff");
+				poller = new AdaptivePoller(TimeUnit.SECONDS.toMillis(configuredSlowResponse == null ? 10 : Math.max(1, configuredSlowResponse)),
+						configuredMaxBackoff == null ? 16 : (int) Math.max(1, Math.min(Integer.MAX_VALUE, configuredMaxBackoff)),
+						windows != null ? slotLength : 0);
+				log.fine("Adaptive polling, slow response: " + configuredSlowResponse + " s, max backoff: " + configuredMaxBackoff + " executions");
+			}
+		}
+		
+		//deadline of an execution; also the longest a single read may block
+		Long configuredExecutionTimeout = env.getConfigLong("executionTimeout");
+		executionTimeout = TimeUnit.SECONDS.toMillis(configuredExecutionTimeout == null ? 50 : Math.max(1, configuredExecutionTimeout));
+		log.finer("Execution deadline: " + executionTimeout + " ms");
+		
+		//pooled connections are reused across executions
+		reportClient = new ReportClient(urlport, 50000, (int) executionTimeout, Math.max(2, maxParallelFetches));
+		
 		log.finer("Exiting setup method");
 		
 		return new Status(Status.StatusCode.Success);
@@ -188,222 +453,642 @@ public class TierTimeMonitor implements Monitor {
 	public Status execute(MonitorEnvironment env) throws Exception {
 				
 		log.finer("Entering execute method");
+		fetchSkipped = poller != null && !poller.shouldFetch(System.currentTimeMillis());
+		//idle handles and names age by fetches, a backoff longer than their idle limit would evict them all
+		if (!fetchSkipped) {
+			handleCache.nextCycle();
+			names.nextCycle();
+		}
+		final CycleStats stats = cycleStats = new CycleStats();
+		deadline = new Deadline(env, executionTimeout);
+		Status status = new Status(Status.StatusCode.Success);
 		
-		log.finer("Entering URL Setup");
-		URL overviewurl = new URL(urlprotocol, env.getHost().getAddress(), urlport, dynaTraceURL);		
-		log.fine("Executing URL: " + overviewurl.toString());
+		if (log.isLoggable(Level.FINE)) {
+			log.fine("Executing URL: " + overviewurl.toString());
+		}
 		
+		long fetchStart = System.nanoTime();
 		try {
 			
-			//login to dynatrace server
-			log.finer("Entering username/password setup");
-			String userpass = username + ":" + password;
-			String basicAuth = "Basic " + javax.xml.bind.DatatypeConverter.printBase64Binary(userpass.getBytes());
-			
-			disableCertificateValidation();
-				
-			//URL to grab XML file
-			log.finer("Entering XML file grab");
-			connection = overviewurl.openConnection();
-			connection.setRequestProperty("Authorization", basicAuth);
-			connection.setConnectTimeout(50000);
-			
-			InputStream responseIS = connection.getInputStream();	
-			DocumentBuilderFactory xmlFactory = DocumentBuilderFactory.newInstance();
-			DocumentBuilder docBuilder = xmlFactory.newDocumentBuilder();
-			Document xmlDoc = docBuilder.parse(responseIS);
-			XPathFactory xpathFact = XPathFactory.newInstance();
-			XPath xpath = xpathFact.newXPath();
-												
-			//used to store each unique tier and its values
-			Set<String> uniqueTierSet = new HashSet<String>();
-			xpathNodeList = (NodeList) xpath.evaluate("/dashboardreport/data/admdashlet/adm/agent", xmlDoc, XPathConstants.NODESET);
-			log.finer("number of unique tiers = " + xpathNodeList.getLength());
-			
-			//count number of unique rows
-			if (xpathNodeList.getLength() >= 1)
-			{
-				for (int i = 0; i < xpathNodeList.getLength(); ++i){
-					log.finer("tier noder list iteration: " + i);
-					String tempString = xpathNodeList.item(i).getAttributes().getNamedItem(splitOption).toString();
-					log.finer("tempString orig: " + tempString);
-					String changedTempString = tempString.replaceAll("\"","").replace(splitOption + "=","");
-					log.finer("tempString chg: " + changedTempString);
-					uniqueTierSet.add(changedTempString);
+			if (fetchSkipped) {
+				log.fine("Skipping the fetch of this execution: " + poller);
+			}
+			else if (asyncRefresh) {
+				if (refresher == null) {
+					refresher = startRefresher(primaryTarget, basicAuth);
 				}
-			}	
-					
-			log.finer("number of unique rows = " + uniqueTierSet.size());
-			String[] tempStringArray = uniqueTierSet.toArray(new String[0]);
-										
-			//loop through array of unique tiers
-			for (int j = 0; j < uniqueTierSet.size(); ++j){
-				log.finer("Splitting for tempString: " + tempStringArray[j]);
-				dynamicMetric(env, xpath, tempStringArray[j], xmlDoc);
+				status = publishLatest(env, stats);
+			}
+			else if (!additionalTargets.isEmpty()) {
+				status = fanOut(env, primaryTarget, basicAuth, stats, deadline);
+			}
+			else {
+				//URL to grab XML file
+				log.finer("Entering XML file grab");
+				TierSnapshot snapshot = fetchSnapshot(overviewurl, basicAuth, stats, deadline);
+				publishSnapshot(env, snapshot, splitOption.getKey());
 			}
 			
+		} catch (CancellationException e) {
+			status = deadlineExceeded(e, stats);
+
 		} catch (ClientProtocolException e) {
 			log.severe("ClientProtocolException: " + e);
-			return new Status(Status.StatusCode.ErrorInternal);
+			status = new Status(Status.StatusCode.ErrorInternal);
 
 		} catch (IOException e) {
-			log.severe("IOException: " + e);
-			return new Status(Status.StatusCode.ErrorInternal);
+			if (deadline.isExpired()) {
+				status = deadlineExceeded(e, stats);
+			}
+			else {
+				log.severe("IOException: " + e);
+				status = new Status(Status.StatusCode.ErrorInternal);
+			}
 
 		} catch (Exception e){
-			log.severe("Exception: " + e);
-			return new Status(Status.StatusCode.ErrorInternal);
+			if (deadline.isExpired()) {
+				status = deadlineExceeded(e, stats);
+			}
+			else {
+				log.severe("Exception: " + e);
+				status = new Status(Status.StatusCode.ErrorInternal);
+			}
 		}
 		
+		if (poller != null && !fetchSkipped) {
+			int level = poller.getLevel();
+			poller.fetched(!status.getStatusCode().equals(Status.StatusCode.Success), (System.nanoTime() - fetchStart) / 1e6);
+			if (poller.getLevel() > level) {
+				log.warning("Server slow or failing, skipping the next " + poller.getSkipRemaining() + " fetches: " + poller);
+			}
+		}
+		
+		//health measures are published for failed executions too
+		publishHealth(env, stats);
+		
 		log.finer("Exiting execute method");
 		log.finer("*****END PLUGIN LOGGING*****");
 		
+		return status;
+	}
+	
+	/**
+	 * Fetches and parses one report and indexes it by tier. Safe to call
+	 * from the fetch executor: only immutable configuration, the thread-safe
+	 * report client and the shared report cache are used.
+	 *
+	 * @param url
+	 *            the report URL
+	 * @param basicAuth
+	 *            the value of the Authorization header
+	 * @param stats
+	 *            the execution the fetch is accounted to
+	 * @param fetchDeadline
+	 *            the fetch gives up when this deadline expires
+	 * @return a TierSnapshot object that contains the values per tier
+	 */
+	private TierSnapshot fetchSnapshot(final URL url, final String basicAuth, final CycleStats stats, final Deadline fetchDeadline) throws Exception {
+		
+		TransactionFlowReport report;
+		if (sharedCacheTTL > 0) {
+			//monitors of this plugin requesting the same report with the same credentials share one fetch
+			report = ReportCache.getShared().get(url + " " + cacheCredentials, sharedCacheTTL, sharedCacheSize, fetchDeadline.getRemaining(), new Callable<TransactionFlowReport>() {
+				public TransactionFlowReport call() throws Exception {
+					return loadReport(url, basicAuth, stats, fetchDeadline);
+				}
+			});
+		}
+		else {
+			report = loadReport(url, basicAuth, stats, fetchDeadline);
+		}
+		return TierSnapshot.build(report, splitOption, reportFields, countWeighted, distributionFields);
+	}
+	
+	/**
+	 * Fetches and parses one report.
+	 */
+	private TransactionFlowReport loadReport(URL url, String basicAuth, CycleStats stats, Deadline fetchDeadline) throws Exception {
+		
+		ReportStream responseIS = reportClient.open(url, basicAuth, fetchDeadline);
+		ReportRecorder.Recording recording = recorder == null ? null : recorder.startRecording(url.toString(), responseIS);
+		TransactionFlowReport report;
+		try {
+			long start = System.nanoTime();
+			report = parseReport(recording == null ? responseIS : recording, fetchDeadline);
+			stats.addFetch(responseIS, System.nanoTime() - start);
+			if (recording != null) {
+				try {
+					recorder.append(recording);
+				} catch (IOException e) {
+					log.warning("Recording the report from " + url.getHost() + " failed: " + e);
+				}
+			}
+		} finally {
+			if (recording != null) {
+				recording.discard();
+			}
+			responseIS.close();
+		}
+		log.fine("Report bytes transferred from " + url.getHost() + ": " + responseIS.getTransferredBytes() + ", uncompressed: " + responseIS.getDecodedBytes()
+				+ " (Content-Encoding: " + responseIS.getContentEncoding() + ")");
+		return report;
+	}
+	
+	/**
+	 * Fetch of a target on the fetch executor. A fetch can outlive the
+	 * execution that started it, so it has a deadline and statistics of its
+	 * own; the statistics are added to the execution that publishes it.
+	 */
+	private static final class InFlightFetch {
+		final Future<TierSnapshot> future;
+		final CycleStats stats;
+
+		InFlightFetch(Future<TierSnapshot> future, CycleStats stats) {
+			this.future = future;
+			this.stats = stats;
+		}
+	}
+	
+	/**
+	 * Fetches the primary and all additional targets concurrently and
+	 * publishes every snapshot that is ready within the target timeout. A
+	 * target that is still running when the timeout expires is not waited
+	 * for; its fetch keeps running until its own deadline and is published
+	 * by a later execution instead of being started again.
+	 *
+	 * @return Success if all targets were published, PartialSuccess if some
+	 *         were, ErrorInternal if none were
+	 */
+	private Status fanOut(MonitorEnvironment env, ReportTarget primaryTarget, final String basicAuth, final CycleStats stats, final Deadline fetchDeadline) throws Exception {
+		
+		log.finer("Entering fanOut method");
+		
+		List<ReportTarget> targets = new ArrayList<ReportTarget>(additionalTargets.size() + 1);
+		targets.add(primaryTarget);
+		targets.addAll(additionalTargets);
+		
+		for (ReportTarget target : targets) {
+			if (!inFlightFetches.containsKey(target.getDimension())) {
+				final URL url = target.getURL(urlprotocol);
+				//not bound to this execution: neither its isStopped() nor its statistics apply to a carried over fetch
+				final CycleStats loadStats = new CycleStats();
+				final Deadline loadDeadline = new Deadline(null, executionTimeout);
+				inFlightFetches.put(target.getDimension(), new InFlightFetch(fetchExecutor.submit(new Callable<TierSnapshot>() {
+					public TierSnapshot call() throws Exception {
+						return fetchSnapshot(url, basicAuth, loadStats, loadDeadline);
+					}
+				}), loadStats));
+			}
+			else {
+				log.fine("Fetch for " + target + " is still running from a previous execution");
+			}
+		}
+		
+		long waitUntil = System.currentTimeMillis() + Math.min(targetTimeout, fetchDeadline.getRemaining());
+		int published = 0;
+		for (ReportTarget target : targets) {
+			InFlightFetch fetch = inFlightFetches.get(target.getDimension());
+			try {
+				TierSnapshot snapshot = fetch.future.get(Math.max(0, waitUntil - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+				inFlightFetches.remove(target.getDimension());
+				stats.addLoad(fetch.stats);
+				publishSnapshot(env, snapshot, target.getDimension());
+				published++;
+			} catch (TimeoutException e) {
+				log.warning("Fetch for " + target + " did not complete within " + targetTimeout + " ms, publishing it next execution");
+			} catch (ExecutionException e) {
+				inFlightFetches.remove(target.getDimension());
+				stats.addLoad(fetch.stats);
+				log.severe("Fetch for " + target + " failed: " + e.getCause());
+			}
+		}
+		
+		log.finer("Exiting fanOut method");
+		
+		if (published == targets.size()) {
+			return new Status(Status.StatusCode.Success);
+		}
+		return new Status(published > 0 ? Status.StatusCode.PartialSuccess : Status.StatusCode.ErrorInternal);
+	}
+	
+	/**
+	 * Starts the background refresh of the primary and all additional
+	 * targets.
+	 */
+	private SnapshotRefresher startRefresher(ReportTarget primaryTarget, final String basicAuth) throws Exception {
+		
+		SnapshotRefresher snapshotRefresher = new SnapshotRefresher(maxParallelFetches, refreshInterval, createThreadFactory("TierTimeMonitor-refresh-"));
+		List<ReportTarget> targets = new ArrayList<ReportTarget>(additionalTargets.size() + 1);
+		targets.add(primaryTarget);
+		targets.addAll(additionalTargets);
+		for (ReportTarget target : targets) {
+			final URL url = target.getURL(urlprotocol);
+			snapshotRefresher.add(target.getDimension(), new Callable<SnapshotRefresher.RefreshedSnapshot>() {
+				public SnapshotRefresher.RefreshedSnapshot call() throws Exception {
+					CycleStats loadStats = new CycleStats();
+					return new SnapshotRefresher.RefreshedSnapshot(fetchSnapshot(url, basicAuth, loadStats, new Deadline(null, executionTimeout)), loadStats);
+				}
+			});
+		}
+		return snapshotRefresher;
+	}
+	
+	/**
+	 * Publishes the latest background snapshot of every target. Snapshots
+	 * older than the staleness limit are not published. A target whose first
+	 * refresh is still running is skipped without counting as a failure.
+	 *
+	 * @return Success if all loaded targets were published, PartialSuccess if
+	 *         some were, ErrorInternal if none were
+	 */
+	private Status publishLatest(MonitorEnvironment env, CycleStats stats) {
+		
+		log.finer("Entering publishLatest method");
+		
+		List<String> dimensions = new ArrayList<String>(additionalTargets.size() + 1);
+		dimensions.add(splitOption.getKey());
+		for (ReportTarget target : additionalTargets) {
+			dimensions.add(target.getDimension());
+		}
+		
+		int published = 0;
+		int failed = 0;
+		for (String dimension : dimensions) {
+			SnapshotRefresher.RefreshedSnapshot latest = refresher.getLatest(dimension);
+			boolean failing = refresher.isFailing(dimension);
+			if (latest == null) {
+				if (failing) {
+					log.warning("No report loaded yet for " + dimension);
+					stats.addSnapshotAge(0, true);
+					failed++;
+				}
+				else {
+					log.fine("First refresh for " + dimension + " is still running");
+				}
+				continue;
+			}
+			long age = latest.getAge();
+			if (age > maxStaleness) {
+				log.warning("Report for " + dimension + " is " + age + " ms old, exceeding the staleness limit of " + maxStaleness + " ms");
+				stats.addSnapshotAge(age, true);
+				failed++;
+				continue;
+			}
+			if (latest.markPublished()) {
+				stats.addLoad(latest.getStats());
+			}
+			stats.addSnapshotAge(age, failing);
+			publishSnapshot(env, latest.getSnapshot(), dimension);
+			published++;
+		}
+		
+		log.finer("Exiting publishLatest method");
+		
+		if (failed == 0) {
+			return new Status(Status.StatusCode.Success);
+		}
+		return new Status(published > 0 ? Status.StatusCode.PartialSuccess : Status.StatusCode.ErrorInternal);
+	}
+	
+	/**
+	 * Parses a report with the configured parser. The stream is not closed.
+	 *
+	 * @throws CancellationException
+	 *             if the deadline expired
+	 */
+	TransactionFlowReport parseReport(InputStream responseIS, Deadline parseDeadline) throws Exception {
+		return streamingParser ? reportReader.read(responseIS, parseDeadline) : readDocument(responseIS, parseDeadline);
+	}
+	
+	/**
+	 * Logs an execution that ran out of time and tells whether the tiers
+	 * published up to then make it a partial success.
+	 */
+	private Status deadlineExceeded(Exception e, CycleStats stats) {
+		String message = "Execution deadline of " + executionTimeout + " ms exceeded (" + e.getMessage() + ")";
+		if (stats.getMeasuresWritten() > 0) {
+			log.warning(message + ", published " + stats.getMeasuresWritten() + " values before stopping");
+			return new Status(Status.StatusCode.PartialSuccess, message);
+		}
+		log.warning(message + ", nothing published");
+		return new Status(Status.StatusCode.ErrorInternal, message);
+	}
+	
+	/**
+	 * Runs one cycle of the parse, index and publish pipeline on a report
+	 * that has already been fetched. Used to benchmark and replay reports
+	 * without a Dynatrace server.
+	 *
+	 * @param responseIS
+	 *            the report; the stream is not closed
+	 */
+	Status processReport(MonitorEnvironment env, InputStream responseIS) throws Exception {
+		handleCache.nextCycle();
+		names.nextCycle();
+		CycleStats stats = cycleStats = new CycleStats();
+		deadline = new Deadline(env, executionTimeout);
+		long start = System.nanoTime();
+		TransactionFlowReport report = parseReport(responseIS, deadline);
+		stats.addParse(System.nanoTime() - start);
+		publishSnapshot(env, TierSnapshot.build(report, splitOption, reportFields, countWeighted, distributionFields), splitOption.getKey());
+		publishHealth(env, stats);
 		return new Status(Status.StatusCode.Success);
 	}
 	
 	/**
-	 * Converts an attribute map from a NamedNodeMap objejt to a String value.
+	 * Document builder and compiled XPath expressions of the DOM parser,
+	 * created once per thread.
+	 */
+	private static class DomExtractor {
+		final DocumentBuilder docBuilder;
+		final XPathExpression agents;
+		final XPathExpression links;
+		
+		DomExtractor() throws Exception {
+			docBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+			XPath xpath = XPathFactory.newInstance().newXPath();
+			agents = xpath.compile(AGENTS_XPATH);
+			links = xpath.compile(LINKS_XPATH);
+		}
+	}
+	
+	/**
+	 * Parses the report into a DOM document and converts the agent and link
+	 * nodes into the compact report form.
+	 *
+	 * @param responseIS
+	 *            the response stream of the report request
+	 * @return a TransactionFlowReport with all agents and links of the report
+	 */
+	private TransactionFlowReport readDocument(InputStream responseIS, Deadline parseDeadline) throws Exception {
+		
+		DomExtractor extractor = domExtractors.get();
+		extractor.docBuilder.reset();
+		Document xmlDoc = extractor.docBuilder.parse(responseIS);
+		
+		NodeList xpathNodeList = (NodeList) extractor.agents.evaluate(xmlDoc, XPathConstants.NODESET);
+		NodeList countNodeList = (NodeList) extractor.links.evaluate(xmlDoc, XPathConstants.NODESET);
+		if (log.isLoggable(Level.FINER)) {
+			log.finer("number of agents = " + xpathNodeList.getLength());
+		}
+		
+		String[] valueFields = reportReader.getValueFields();
+		TransactionFlowReport report = new TransactionFlowReport(names, valueFields);
+		for (int i = 0; i < xpathNodeList.getLength(); ++i){
+			if (i % DEADLINE_CHECK_INTERVAL == 0) {
+				parseDeadline.check("reading the agents");
+			}
+			NamedNodeMap attributes = xpathNodeList.item(i).getAttributes();
+			int agent = report.addAgent(getAttributeValue(attributes, "name"), getAttributeValue(attributes, "group"), getAttributeValue(attributes, "technology"));
+			for (int field = 0; field < valueFields.length; field++){
+				report.setValue(field, agent, getResultValue(attributes, valueFields[field]));
+			}
+		}
+		for (int i = 0; i < countNodeList.getLength(); ++i){
+			if (i % DEADLINE_CHECK_INTERVAL == 0) {
+				parseDeadline.check("reading the links");
+			}
+			NamedNodeMap attributes = countNodeList.item(i).getAttributes();
+			report.addLink(getAttributeValue(attributes, "name"), getAttributeValue(attributes, "to"),
+					getResultValue(attributes, transactionCountMeasure));
+		}
+		return report;
+	}
+	
+	/**
+	 * Publishes the measures of all tiers of a snapshot. Each subscribed
+	 * measure is looked up once per cycle and read from the snapshot for
+	 * every tier. When the execution deadline expires, publishing stops with
+	 * a CancellationException; the values written up to then are kept. With
+	 * an incremental window, the snapshot of the last slot is merged into the
+	 * window of its dimension and the window is published.
 	 *
 	 * @param 	env
 	 *          	a MonitorEnvironment object that contains the
 	 *            	Plugin configuration and subscribed measures. These
 	*            	MonitorMeasures can be used to store measurements.
-	 *			xpath
-	 *          	a XPath object that contains syntax for defining parts 
-	 *				of an XML document. xpath uses path expressions to navigate in XML documents. 
-	 *				xpath contains a library of standard functions. 
-	 *			tempStringMeasure
-	 *          	a String that contains the to be evaluated splitting
-	 *			xmlDoc
-	 *          	a document objectobject that contains the parsed xml response
+	 *			snapshot
+	 *          	a TierSnapshot object that contains the values per tier
+	 *			dimension
+	 *          	the dynamic measure key the values are published under
 	 */
-	private void dynamicMetric(MonitorEnvironment env, XPath xpath, String tempStringMeasure, Document xmlDoc) throws XPathExpressionException, NullPointerException {
+	private void publishSnapshot(MonitorEnvironment env, TierSnapshot snapshot, String dimension) {
 		
-		log.finer("Entering dynamicMetrics method");
-		
-		//assign string as a variable to use in xPath evaluate statement
-		MapVariableResolver vr = new MapVariableResolver();
-		vr.setVariable("myVar", tempStringMeasure);
-		xpath.setXPathVariableResolver(vr);
-		log.fine("myVar: " + vr.resolveVariable( new QName ("myVar")));
-		NodeList tierNodeList = null;
-		NodeList countNodeList = null;
-			
-		if (splitOption.equals("name")){
-			log.finer("dynamicMetric splitOption = name");
-			tierNodeList = (NodeList) xpath.evaluate("/dashboardreport/data/admdashlet/adm/agent[contains(@name, $myVar)]", xmlDoc, XPathConstants.NODESET);
-			countNodeList = (NodeList) xpath.evaluate("/dashboardreport/data/admdashlet/adm_links/agent[contains(@to, $myVar)]", xmlDoc, XPathConstants.NODESET); //new for count
+		log.finer("Entering publishSnapshot method");
+		if (horizons != null) {
+			//the horizon gets the fetched timeframes, which do not overlap in an incremental window
+			PercentileHorizon horizon = horizons.get(dimension);
+			if (horizon == null) {
+				horizon = new PercentileHorizon(percentileHorizon);
+				horizons.put(dimension, horizon);
+			}
+			horizon.update(snapshot, System.currentTimeMillis());
 		}
-		else if (splitOption.equals("group")){
-			log.finer("dynamicMetric splitOption = group");
-			tierNodeList = (NodeList) xpath.evaluate("/dashboardreport/data/admdashlet/adm/agent[contains(@group, $myVar)]", xmlDoc, XPathConstants.NODESET);
+		if (windows != null) {
+			TierWindow window = windows.get(dimension);
+			if (window == null) {
+				window = new TierWindow(windowLength, slotLength, windowMerge);
+				windows.put(dimension, window);
+			}
+			snapshot = window.update(snapshot, System.currentTimeMillis());
 		}
-		
-		else if (splitOption.equals("technology")){
-			log.finer("dynamicMetric splitOption = technology");
-			tierNodeList = (NodeList) xpath.evaluate("/dashboardreport/data/admdashlet/adm/agent[contains(@technology, $myVar)]", xmlDoc, XPathConstants.NODESET);
+		snapshot = snapshot.limit(maxSplits, splitRanking, windows != null ? windowMerge : TierSnapshot.AVERAGE);
+		if (log.isLoggable(Level.FINER)) {
+			log.finer("number of unique rows = " + snapshot.getTierCount());
 		}
+		cycleStats.addSnapshot(snapshot);
+		exportTimestamp = System.currentTimeMillis();
 		
-		log.finer("Size tierNodeList: " + tierNodeList.getLength());
-				
 		//Response Time
-		if ((measures = env.getMonitorMeasures(METRIC_GROUP_1, MSR_ResponseTime)) != null && !measures.isEmpty()) {					
+		if ((measures = env.getMonitorMeasures(METRIC_GROUP_1, MSR_ResponseTime)) != null && !measures.isEmpty()) {
 			log.fine("**************Measure Response Time*****************");
-			assignMeasureValue(env, tempStringMeasure, calculateMapAvg(getResultMap(tierNodeList, responseTimeMeasure, "name")));
+			exportName = MSR_ResponseTime;
+			assignAverages(env, snapshot, dimension, TransactionFlowReport.RESPONSE);
 		}
 		
-		
-		//Exec Time		
+		//Exec Time
 		if ((measures = env.getMonitorMeasures(METRIC_GROUP_1, MSR_ExecTime)) != null && !measures.isEmpty()) {
 			log.fine("**************Measure Execution Time*****************");
-			assignMeasureValue(env, tempStringMeasure, calculateMapAvg(getResultMap(tierNodeList, execTimeMeasure, "name")));
+			exportName = MSR_ExecTime;
+			assignAverages(env, snapshot, dimension, TransactionFlowReport.EXEC);
 		}
 		
-		
 		//Exec CPU Time
 		if ((measures = env.getMonitorMeasures(METRIC_GROUP_1, MSR_ExecCPUTime)) != null && !measures.isEmpty()) {
 			log.fine("**************Measure Execution CPU Time*****************");
-			assignMeasureValue(env, tempStringMeasure, calculateMapAvg(getResultMap(tierNodeList, execCPUTimeMeasure, "name")));
+			exportName = MSR_ExecCPUTime;
+			assignAverages(env, snapshot, dimension, TransactionFlowReport.EXEC_CPU);
 		}
 		
-		
 		//Transaction Count
-		try{
-			if ((measures = env.getMonitorMeasures(METRIC_GROUP_2, MSR_TransactionCount)) != null && !measures.isEmpty()) {
-				
-				log.fine("*******************Measure TransactionCount*****************");
-				
-				HashMap<String, Double> transactionCountMap = getResultMap(countNodeList, transactionCountMeasure, "to");
-				log.fine("transactionCountMap size= " + transactionCountMap.size());
-				
-				for(Map.Entry<String, Double> m:transactionCountMap.entrySet()){  
-					log.fine("Map Entry: " + m.getKey() + " " + m.getValue());
-					assignMeasureValue(env, m.getKey(), m.getValue());				
-				}	
-	  
-			} 
-		} 
-		catch (NullPointerException e){
-			log.severe("Exception: " + e);
-			log.severe("Transaction Count can only be calculated with Agent Name splitting. Please adjust your monior configuration.");
+		if ((measures = env.getMonitorMeasures(METRIC_GROUP_2, MSR_TransactionCount)) != null && !measures.isEmpty()) {
+			log.fine("*******************Measure TransactionCount*****************");
+			exportName = MSR_TransactionCount;
+			for (int tier = 0; tier < snapshot.getTierCount(); tier++){
+				deadline.check("publishing");
+				if (snapshot.hasTransactions(tier)){
+					assignMeasureValue(env, dimension, snapshot.getTier(tier), snapshot.getTransactionCount(tier));
+				}
+			}
 		}
 		
 		//Transaction Count Rate
-		try {
-			if ((measures = env.getMonitorMeasures(METRIC_GROUP_2, MSR_TransactionCountRate)) != null && !measures.isEmpty()) {
-				
-				log.fine("*******************Measure TransactionCount Rate*****************");
-				
-				HashMap<String, Double> transactionCountRateMap = getResultMap(countNodeList, transactionCountMeasure, "to");
-				log.finer("transactionCountRateMap size= " + transactionCountRateMap.size());
-				
-				log.fine("Calculating Sum");
-				double transactionCountSum = calculateSum(transactionCountRateMap);			
-				log.fine("count Sum: " + transactionCountSum);
-				
-				for(Map.Entry<String,Double> m:transactionCountRateMap.entrySet()){  
-					log.fine("Map Entry: " + m.getKey() + " " + m.getValue());
-					double transactionCountRate = m.getValue()/transactionCountSum;
-					transactionCountRate = Math.round(transactionCountRate * 10000d) / 10000d;
-					transactionCountRate = transactionCountRate*100;
-					log.fine("transactionCountRate = " + transactionCountRate + "%");
-					assignMeasureValue(env, m.getKey(), transactionCountRate);				
+		if ((measures = env.getMonitorMeasures(METRIC_GROUP_2, MSR_TransactionCountRate)) != null && !measures.isEmpty()) {
+			log.fine("*******************Measure TransactionCount Rate*****************");
+			exportName = MSR_TransactionCountRate;
+			for (int tier = 0; tier < snapshot.getTierCount(); tier++){
+				deadline.check("publishing");
+				if (snapshot.hasTransactions(tier)){
+					double transactionCountRate = snapshot.getTransactionCountRate(tier);
+					if (log.isLoggable(Level.FINE)) {
+						log.fine("transactionCountRate = " + transactionCountRate + "%");
+					}
+					assignMeasureValue(env, dimension, snapshot.getTier(tier), transactionCountRate);
 				}
-
 			}
-		} 
-		catch (NullPointerException e){
-			log.severe("Exception: " + e);
-			log.severe("Transaction Count Rate can only be calculated with Agent Name splitting. Please adjust your monior configuration.");
 		}
 		
-		log.finer("Exiting dynamicMetricsCollector method");	
+		//Percentiles
+		for (int field = 0; field < MSR_Percentiles.length; field++) {
+			if ((measures = env.getMonitorMeasures(METRIC_GROUP_PERCENTILES, MSR_Percentiles[field])) != null && !measures.isEmpty() && snapshot.hasDistribution(field)) {
+				log.fine("*******************Measure " + MSR_Percentiles[field] + "*****************");
+				assignPercentiles(env, snapshot, dimension, field);
+			}
+		}
+		
+		//Call Count
+		CallGraph calls = snapshot.getCalls();
+		if ((measures = env.getMonitorMeasures(METRIC_GROUP_CALLS, MSR_CallCount)) != null && !measures.isEmpty()) {
+			log.fine("*******************Measure Call Count*****************");
+			exportName = MSR_CallCount;
+			for (int edge = 0; edge < calls.getEdgeCount(); edge++){
+				deadline.check("publishing");
+				assignMeasureValue(env, dimension, snapshot.getEdge(edge), calls.getCount(edge));
+			}
+		}
+		
+		//Call Rate
+		if ((measures = env.getMonitorMeasures(METRIC_GROUP_CALLS, MSR_CallRate)) != null && !measures.isEmpty()) {
+			log.fine("*******************Measure Call Rate*****************");
+			exportName = MSR_CallRate;
+			for (int edge = 0; edge < calls.getEdgeCount(); edge++){
+				deadline.check("publishing");
+				assignMeasureValue(env, dimension, snapshot.getEdge(edge), snapshot.getCallRate(edge));
+			}
+		}
+		
+		log.finer("Exiting publishSnapshot method");
 	}
 	
-	private void assignMeasureValue(MonitorEnvironment env, String measureSplitName, double resultValue) {
-		
-		log.finer("Assigning Measure Value");
+	private void assignAverages(MonitorEnvironment env, TierSnapshot snapshot, String dimension, int field) {
+		for (int tier = 0; tier < snapshot.getTierCount(); tier++){
+			deadline.check("publishing");
+			assignMeasureValue(env, dimension, snapshot.getTier(tier), snapshot.getAverage(field, tier));
+		}
+	}
+	
+	/**
+	 * Publishes the tier percentiles of a value to the subscribed measures,
+	 * each at the percentile given by its Percentile parameter. The
+	 * distributions accumulated over the percentile horizon are used if one
+	 * is configured.
+	 */
+	private void assignPercentiles(MonitorEnvironment env, TierSnapshot snapshot, String dimension, int field) {
+		PercentileHorizon horizon = horizons == null ? null : horizons.get(dimension);
+		Collection<MonitorMeasure> subscribed = measures;
+		for (MonitorMeasure measure : subscribed) {
+			double percentile = parsePercentile(measure.getParameter(PERCENTILE));
+			if (Double.isNaN(percentile)) {
+				log.warning(measure.getMeasureName() + ": invalid Percentile " + measure.getParameter(PERCENTILE));
+				continue;
+			}
+			measures = Collections.singletonList(measure);
+			exportName = MSR_Percentiles[field] + " p" + (percentile == Math.rint(percentile) ? String.valueOf((long) percentile) : String.valueOf(percentile));
+			for (int tier = 0; tier < snapshot.getTierCount(); tier++){
+				deadline.check("publishing");
+				//the other split changes its tiers, so the horizon does not track it
+				LogHistogram distribution = horizon == null ? null : horizon.getDistribution(field, snapshot.getTier(tier));
+				if (distribution == null) {
+					distribution = snapshot.getDistribution(field, tier);
+				}
+				double value = distribution == null ? Double.NaN : distribution.getPercentile(percentile);
+				if (!Double.isNaN(value)) {
+					assignMeasureValue(env, dimension, snapshot.getTier(tier), value);
+				}
+			}
+		}
+		measures = subscribed;
+	}
+	
+	/**
+	 * Parses a Percentile parameter such as <tt>99</tt>, <tt>99.9</tt> or
+	 * <tt>p99</tt>.
+	 *
+	 * @return the percentile, or <tt>NaN</tt> if the parameter is not a number
+	 *         between 0 and 100
+	 */
+	static double parsePercentile(String parameter) {
+		if (parameter == null) {
+			return Double.NaN;
+		}
+		String value = parameter.trim();
+		if (value.startsWith("p") || value.startsWith("P")) {
+			value = value.substring(1);
+		}
+		try {
+			double percentile = Double.parseDouble(value);
+			return percentile >= 0 && percentile <= 100 ? percentile : Double.NaN;
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+	
+	private void assignMeasureValue(MonitorEnvironment env, String dimension, String measureSplitName, double resultValue) {
+		cycleStats.addMeasuresWritten(handleCache.setValue(env, measures, dimension, measureSplitName, resultValue));
+		if (exportSink != null) {
+			exportSink.offer(exportTimestamp, dimension, exportName, measureSplitName, resultValue);
+		}
+	}
+	
+	/**
+	 * Publishes the cost of the execution to the subscribed Tier Monitor
+	 * Health measures.
+	 */
+	private void publishHealth(MonitorEnvironment env, CycleStats stats) {
 		
-		String comparisonString = measureSplitName;
-		String[] parts = measureSplitName.split("@");
-		String [] parts2 = parts[0].split("\\[");
-		comparisonString = parts2[0];
+		if (exportSink != null) {
+			//values are also dropped by the writer thread, so the drops since the last execution are published
+			long dropped = exportSink.getDropped();
+			stats.addExportDropped((int) Math.min(Integer.MAX_VALUE, dropped - exportDroppedReported));
+			exportDroppedReported = dropped;
+		}
 		
-		for (MonitorMeasure measure : measures){			
-			log.info(measure.getMeasureName() + " for " + measureSplitName + " = " + resultValue);
-			log.fine("Measure Name: " + measure.getMeasureName());
-			log.fine("Measure Split Name: " + measureSplitName);
-			log.fine("Measure Comparison String: " + comparisonString);
-			log.fine("Parameter: " + measure.getParameter("Tier Filter"));
-			
-			if (measure.getParameter("Tier Filter").equals("none")){			
-				dynamicMeasure = env.createDynamicMeasure(measure, splitOption, measureSplitName);
-				dynamicMeasure.setValue(resultValue);
+		if (log.isLoggable(Level.FINE)) {
+			log.fine("Execution cost: " + stats);
+		}
+		setHealthValue(env, MSR_ConnectTime, stats.getConnectTime());
+		setHealthValue(env, MSR_FirstByteTime, stats.getFirstByteTime());
+		setHealthValue(env, MSR_DownloadBytes, stats.getDownloadBytes());
+		setHealthValue(env, MSR_DownloadTime, stats.getDownloadTime());
+		setHealthValue(env, MSR_ParseTime, stats.getParseTime());
+		setHealthValue(env, MSR_AgentsProcessed, stats.getAgents());
+		setHealthValue(env, MSR_TiersProcessed, stats.getTiers());
+		setHealthValue(env, MSR_MeasuresWritten, stats.getMeasuresWritten());
+		setHealthValue(env, MSR_MeasuresSuppressed, fetchSkipped ? 0 : handleCache.getSuppressed());
+		setHealthValue(env, MSR_ExportDropped, stats.getExportDropped());
+		setHealthValue(env, MSR_FetchSkipped, fetchSkipped ? 1 : 0);
+		setHealthValue(env, MSR_FetchBackoff, poller == null ? 0 : poller.getSkipRemaining());
+		setHealthValue(env, MSR_CycleTime, stats.getCycleTime());
+		setHealthValue(env, MSR_SnapshotAge, stats.getSnapshotAge());
+		setHealthValue(env, MSR_SnapshotStale, stats.isStale() ? 1 : 0);
+	}
+	
+	private static void setHealthValue(MonitorEnvironment env, String measureName, double value) {
+		Collection<MonitorMeasure> healthMeasures = env.getMonitorMeasures(METRIC_GROUP_HEALTH, measureName);
+		if (healthMeasures != null) {
+			for (MonitorMeasure measure : healthMeasures) {
+				measure.setValue(value);
 			}
-			else if (measure.getParameter("Tier Filter").equals(comparisonString)){
-				dynamicMeasure = env.createDynamicMeasure(measure, splitOption, measureSplitName);
-				dynamicMeasure.setValue(resultValue);
-			}			
 		}
 	}
 	
@@ -423,10 +1108,53 @@ public class TierTimeMonitor implements Monitor {
 	 */	@Override
 	public void teardown(MonitorEnvironment env) throws Exception {
 		
+		// Stopping running fetches
+		if (refresher != null) {
+			refresher.shutdown();
+			refresher = null;
+		}
+		if (fetchExecutor != null) {
+			fetchExecutor.shutdownNow();
+			fetchExecutor = null;
+		}
+		inFlightFetches.clear();
+		if (recorder != null) {
+			recorder.close();
+			recorder = null;
+		}
+		if (exportSink != null) {
+			exportSink.close();
+			exportSink = null;
+			exportDroppedReported = 0;
+		}
+		poller = null;
+		if (sharedCacheTTL > 0) {
+			ReportCache.getShared().release();
+			sharedCacheTTL = 0;
+		}
+		handleCache.clear();
+		names.clear();
+		cycleStats = null;
+		deadline = null;
+		windows = null;
+		horizons = null;
+		distributionFields = null;
+		domExtractors = null;
+		
+		// Releasing pooled connections
+		if (reportClient != null) {
+			reportClient.shutdown();
+			reportClient = null;
+		}
+		
 		// Releasing variables
 		urlprotocol = null;
 		username = null;
 		password = null;
+		basicAuth = null;
+		cacheCredentials = null;
+		overviewurl = null;
+		primaryTarget = null;
 		responseTimeMeasure = null;
 		execTimeMeasure = null;
 		execCPUTimeMeasure = null;
@@ -435,119 +1163,73 @@ public class TierTimeMonitor implements Monitor {
 		measures = null;
 	}	
 	
-	public static void disableCertificateValidation() {
-		
-		log.finer("Entering disableCertificateValidation method");  
-		
-		// Create a trust manager that does not validate certificate chains
-		  TrustManager[] trustAllCerts = new TrustManager[] { 
-		    new X509TrustManager() {
-		      public X509Certificate[] getAcceptedIssuers() { 
-		        return new X509Certificate[0]; 
-		      }
-		      public void checkClientTrusted(X509Certificate[] certs, String authType) {}
-		      public void checkServerTrusted(X509Certificate[] certs, String authType) {}
-		  }};
-
-		  // Ignore differences between given hostname and certificate hostname
-			HostnameVerifier hv = new HostnameVerifier() {
-		    public boolean verify(String hostname, SSLSession session) { return true; }
-		  };
-
-		  // Install the all-trusting trust manager
-		  try {
-		    SSLContext sc = SSLContext.getInstance("SSL");
-		    sc.init(null, trustAllCerts, new SecureRandom());
-		    HttpsURLConnection.setDefaultSSLSocketFactory(sc.getSocketFactory());
-		    HttpsURLConnection.setDefaultHostnameVerifier(hv);
-		  } catch (Exception e) {}
-		  
-		  log.finer("Leaving disableCertificateValidation method");
-	}
-	
 	/**
-	 * Converts an attribute map from a NamedNodeMap objejt to a String value.
+	 * Converts a timeframe such as <tt>5 Minutes</tt> to milliseconds.
 	 *
-	 * @param attributes
-	 *            a NamedNodeMap object that contains the attributes
-	 *            of a Node
-	 * @return a String object that contains all Node attributes
+	 * @return the length, or 0 if the timeframe cannot be parsed
 	 */
-	private String getAttributesAsString(NamedNodeMap attributes) {
-		StringBuilder sb = new StringBuilder("\n");
-		for (int j = 0; j < attributes.getLength(); j++) {
-			sb.append("\t- ").append(attributes.item(j).getNodeName()).append(": ").append(attributes.item(j).getNodeValue()).append("\n");
+	private static long parseTimeframe(String timeframe) {
+		String[] parts = timeframe == null ? new String[0] : timeframe.trim().split("\\s+");
+		if (parts.length != 2) {
+			return 0;
 		}
-		return sb.toString();
-	}
-	
-	private HashMap<String, Double> getResultMap(NodeList measureList, String measureName, String agentNameField) {
-		
-		log.finer("Entering getResultList Method");		
-		
-		double resultMeasure = 0;
-		HashMap<String, Double> resultMap = new HashMap<String, Double>();  
-			
-		for (int i = 0; i < measureList.getLength(); ++i){
-			log.finer("measureList iteration = " + i);
-			String attributesAsString = getAttributesAsString(measureList.item(i).getAttributes());
-			log.finer("NodeName " + measureList.item(i).getNodeName() + " " + attributesAsString);
-			
-			if (attributesAsString.contains(measureName)){
-				String tempString = measureList.item(i).getAttributes().getNamedItem(measureName).toString();
-				log.finer("tempString: " + tempString);
-				String stringAsDouble = tempString.replaceAll("\"","").replaceAll(measureName + "=","");
-				resultMeasure = Double.parseDouble(stringAsDouble);
-				log.finer("resultMeasure: " + resultMeasure);
-				
-				String tempAgentName = measureList.item(i).getAttributes().getNamedItem(agentNameField).toString();
-				log.finer("tempAgentName: " + tempAgentName);
-				tempAgentName = tempAgentName.replaceAll("\"","").replaceAll((agentNameField + "="),"");
-				log.finer("Agent Name: " + tempAgentName);
-				
-				resultMap.put(tempAgentName,resultMeasure);
+		try {
+			long amount = Long.parseLong(parts[0]);
+			String unit = parts[1].toUpperCase();
+			if (!unit.endsWith("S")) {
+				unit = unit + "S";
 			}
-			resultMeasure = 0;
+			return TimeUnit.valueOf(unit).toMillis(amount);
+		} catch (IllegalArgumentException e) {
+			return 0;
 		}
-		
-		return resultMap;
 	}
 	
-	private double calculateMapAvg(HashMap<String, Double> valuesMap) {
-		
-		log.fine("Calculating Average");
-		
-		double averageTime = 0;
-		int i = 0;
-		
-		
-		for(Map.Entry<String,Double> value:valuesMap.entrySet()){  
-			log.fine("Map Entry: " + value.getKey() + " " + value.getValue());
-			averageTime = averageTime + value.getValue();
-			i++;
-		}		
-			
-		if (i >= 1){
-			averageTime = averageTime / i;
-		}
-		
-		log.fine("Average = " + averageTime);
-		
-		return averageTime;
+	private static String getAttributeValue(NamedNodeMap attributes, String attributeName) {
+		Node attribute = attributes.getNamedItem(attributeName);
+		return attribute == null ? null : attribute.getNodeValue();
 	}
 	
-	private double calculateSum(HashMap<String, Double>  valuesMap) {
-		
-		log.fine("Calculating Sum");
-		double sumValue = 0;		
-		
-		for(Map.Entry<String,Double> value:valuesMap.entrySet()){  
-			log.fine("Map Entry: " + value.getKey() + " " + value.getValue());
-			sumValue = sumValue +  value.getValue();			
+	/**
+	 * Reads a numeric attribute without intermediate strings.
+	 *
+	 * @return the value, or <tt>NaN</tt> if the attribute is missing or not a number
+	 */
+	private static double getResultValue(NamedNodeMap attributes, String measureName) {
+		Node attribute = attributes.getNamedItem(measureName);
+		return attribute == null ? Double.NaN : NumberParser.parseDouble(attribute.getNodeValue());
+	}
+	
+	/**
+	 * Creates the bounded executor for parallel fetches.
+	 */
+	private static ThreadPoolExecutor createFetchExecutor(int maxParallelFetches) {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(maxParallelFetches, maxParallelFetches, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), createThreadFactory("TierTimeMonitor-fetch-"));
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+	
+	/**
+	 * Creates the factory for fetch threads. Virtual threads are used where
+	 * the JVM supports them, platform daemon threads otherwise.
+	 */
+	private static ThreadFactory createThreadFactory(final String namePrefix) {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = Class.forName("java.lang.Thread$Builder").getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+			log.finer("Using virtual threads for " + namePrefix);
+			return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+		} catch (Exception e) {
+			final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+			return new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = defaultFactory.newThread(r);
+					thread.setName(namePrefix + thread.getName());
+					thread.setDaemon(true);
+					return thread;
+				}
+			};
 		}
-		
-		log.fine("Sum: " + sumValue);
-		
-		return sumValue;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,95 @@
+package com.dynatrace.monitor;
+
+/**
+ * Sliding window over the snapshots of short, consecutive timeframes.
+ *
+ * Instead of asking the server to aggregate the whole window on every
+ * execution, the monitor fetches only the last slot (e.g. the last 60
+ * seconds of a 5 minute window) and keeps the snapshots of the fetched
+ * slots, with their per-tier sums, weights, minimums, maximums and
+ * transaction counts, in a ring. Every fetched snapshot takes a place of
+ * its own, so no fetched timeframe is lost to scheduling jitter, and it
+ * stays in the window until the timeframe it covers, ending when it was
+ * built, has mostly slid out of the window. A skipped execution therefore
+ * leaves a gap instead of shifting the window. A snapshot that is published
+ * again, as with background refresh, is not added twice, and neither is a
+ * snapshot built less than half a slot after the previous one: the two
+ * timeframes mostly overlap, so the newer one replaces the older.
+ *
+ * Until the ring has filled up once, the window only covers the slots seen
+ * so far.
+ */
+public class TierWindow {
+
+	private final long windowLength;
+	private final long slotLength;
+	private final int merge;
+	private final TierSnapshot[] slots;
+	private final long[] slotEnds;
+	private int next;
+
+	/**
+	 * @param windowLength
+	 *            the length of the window in milliseconds
+	 * @param slotLength
+	 *            the timeframe of a single fetch in milliseconds
+	 * @param merge
+	 *            how the tier values of the slots are combined, one of
+	 *            {@link TierSnapshot#AVERAGE}, {@link TierSnapshot#MINIMUM}
+	 *            or {@link TierSnapshot#MAXIMUM}
+	 */
+	public TierWindow(long windowLength, long slotLength, int merge) {
+		this.windowLength = windowLength;
+		this.slotLength = slotLength;
+		this.merge = merge;
+		int slotCount = (int) Math.max(1, (windowLength + slotLength - 1) / slotLength);
+		// snapshots are at least half a slot apart
+		slots = new TierSnapshot[2 * slotCount + 1];
+		slotEnds = new long[slots.length];
+	}
+
+	/**
+	 * Puts the snapshot of the last slot into the window and returns the
+	 * snapshot of the whole window. A snapshot that is already in the window
+	 * is not added again.
+	 *
+	 * @param delta
+	 *            the snapshot of the timeframe ending when it was built
+	 * @param now
+	 *            the current time in milliseconds
+	 */
+	public TierSnapshot update(TierSnapshot delta, long now) {
+
+		boolean known = false;
+		for (TierSnapshot slot : slots) {
+			known |= slot == delta;
+		}
+		if (!known) {
+			int last = (next + slots.length - 1) % slots.length;
+			long end = delta.getCreatedAt();
+			if (slots[last] != null && end - slotEnds[last] < slotLength / 2) {
+				slots[last] = delta;
+				slotEnds[last] = end;
+			}
+			else {
+				slots[next] = delta;
+				slotEnds[next] = end;
+				next = (next + 1) % slots.length;
+			}
+		}
+
+		TierSnapshot[] current = new TierSnapshot[slots.length];
+		for (int i = 0; i < slots.length; i++) {
+			// in the window while the middle of its timeframe is
+			if (slots[i] != null && slotEnds[i] - slotLength / 2 > now - windowLength) {
+				current[i] = slots[i];
+			}
+		}
+		TierSnapshot window = TierSnapshot.merge(current, merge);
+		return window == null ? delta : window;
+	}
+
+	public int getSlotCount() {
+		return (slots.length - 1) / 2;
+	}
+}
@@ -0,0 +1,175 @@
+package com.dynatrace.monitor;
+
+import java.io.InputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads a TransactionFlow XML export in a single forward pass.
+ *
+ * Only <tt>dashboardreport/data/admdashlet/adm/agent</tt> and
+ * <tt>dashboardreport/data/admdashlet/adm_links/agent</tt> elements are
+ * looked at, and only the attributes needed by the monitor are kept, so the
+ * memory used while parsing does not depend on the size of the report.
+ * Names are interned in the {@link NameDictionary} of the reader, so reports
+ * read by the same reader share their name instances.
+ */
+public class TransactionFlowReader {
+
+	private static final Logger log = Logger.getLogger(TransactionFlowReader.class.getName());
+
+	private static final String[] AGENT_PATH = { "dashboardreport", "data", "admdashlet" };
+	private static final int AGENT_DEPTH = AGENT_PATH.length + 2;
+	private static final int DEADLINE_CHECK_INTERVAL = 256;
+
+	private static final XMLInputFactory inputFactory = createInputFactory();
+
+	private final NameDictionary dictionary;
+	private final String[] valueFields;
+
+	/**
+	 * @param valueFields
+	 *            the agent value attributes to keep, e.g.
+	 *            <tt>response_avg</tt>, <tt>exec_avg</tt>, <tt>exec_cpu_avg</tt>
+	 */
+	public TransactionFlowReader(String... valueFields) {
+		this(new NameDictionary(), valueFields);
+	}
+
+	/**
+	 * @param dictionary
+	 *            the dictionary the names of all reports read are interned in
+	 * @param valueFields
+	 *            the agent value attributes to keep, e.g.
+	 *            <tt>response_avg</tt>, <tt>exec_avg</tt>, <tt>exec_cpu_avg</tt>
+	 */
+	public TransactionFlowReader(NameDictionary dictionary, String... valueFields) {
+		this.dictionary = dictionary;
+		this.valueFields = valueFields;
+	}
+
+	public NameDictionary getDictionary() {
+		return dictionary;
+	}
+
+	public String[] getValueFields() {
+		return valueFields.clone();
+	}
+
+	/**
+	 * Parses the report from the given stream. The stream is not closed.
+	 */
+	public TransactionFlowReport read(InputStream in) throws XMLStreamException {
+		return read(in, null);
+	}
+
+	/**
+	 * Parses the report from the given stream, giving up when the deadline
+	 * expires. The stream is not closed.
+	 *
+	 * @param deadline
+	 *            checked every few hundred elements, or <tt>null</tt>
+	 * @throws java.util.concurrent.CancellationException
+	 *             if the deadline expired
+	 */
+	public TransactionFlowReport read(InputStream in, Deadline deadline) throws XMLStreamException {
+
+		log.finer("Entering read method");
+
+		TransactionFlowReport report = new TransactionFlowReport(dictionary, valueFields);
+		XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+		try {
+			// depth of the current element and whether the path down to it matched so far
+			int depth = 0;
+			int matchedDepth = 0;
+			boolean inLinks = false;
+			int elements = 0;
+
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					depth++;
+					if (matchedDepth != depth - 1) {
+						continue;
+					}
+					String localName = reader.getLocalName();
+					if (depth <= AGENT_PATH.length) {
+						if (localName.equals(AGENT_PATH[depth - 1])) {
+							matchedDepth = depth;
+						}
+					}
+					else if (depth == AGENT_DEPTH - 1) {
+						if (localName.equals("adm")) {
+							inLinks = false;
+							matchedDepth = depth;
+						}
+						else if (localName.equals("adm_links")) {
+							inLinks = true;
+							matchedDepth = depth;
+						}
+					}
+					else if (depth == AGENT_DEPTH && localName.equals("agent")) {
+						if (deadline != null && ++elements % DEADLINE_CHECK_INTERVAL == 0) {
+							deadline.check("parsing the report");
+						}
+						if (inLinks) {
+							readLink(reader, report);
+						}
+						else {
+							readAgent(reader, report);
+						}
+					}
+				}
+				else if (event == XMLStreamConstants.END_ELEMENT) {
+					if (matchedDepth == depth) {
+						matchedDepth--;
+					}
+					depth--;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+
+		if (log.isLoggable(Level.FINER)) {
+			log.finer("agents read: " + report.getAgentCount() + ", links read: " + report.getLinkCount());
+		}
+		return report;
+	}
+
+	private void readAgent(XMLStreamReader reader, TransactionFlowReport report) {
+		int agent = report.addAgent(reader.getAttributeValue(null, "name"),
+				reader.getAttributeValue(null, "group"),
+				reader.getAttributeValue(null, "technology"));
+		for (int field = 0; field < valueFields.length; field++) {
+			report.setValue(field, agent, parseValue(reader.getAttributeValue(null, valueFields[field])));
+		}
+	}
+
+	private void readLink(XMLStreamReader reader, TransactionFlowReport report) {
+		report.addLink(reader.getAttributeValue(null, "name"),
+				reader.getAttributeValue(null, "to"),
+				parseValue(reader.getAttributeValue(null, "remoting_count")));
+	}
+
+	private static double parseValue(String value) {
+		double parsed = NumberParser.parseDouble(value);
+		if (Double.isNaN(parsed) && value != null && log.isLoggable(Level.FINE)) {
+			log.fine("Ignoring non-numeric value: " + value);
+		}
+		return parsed;
+	}
+
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+		return factory;
+	}
+}
@@ -0,0 +1,237 @@
+package com.dynatrace.monitor;
+
+import java.util.Arrays;
+
+/**
+ * Compact in-memory form of a TransactionFlow report.
+ *
+ * Only the attributes the monitor needs are kept: the split attributes
+ * (name, group, technology) and the requested value attributes of every
+ * <tt>adm/agent</tt> element, plus the caller, callee and count of every
+ * <tt>adm_links/agent</tt> element. Values are stored in growable parallel
+ * arrays; a missing numeric attribute is stored as <tt>NaN</tt>. Names are
+ * replaced by their canonical instances from a {@link NameDictionary}, and
+ * their dictionary IDs are kept alongside (-1 for a missing name).
+ *
+ * A report is filled by a single thread and only read afterwards, so it can
+ * be shared between monitors once it has been published safely. The agent
+ * level {@link CallGraph} of the links is built on first use and shared as
+ * well, so monitors splitting the same report differently resolve the links
+ * only once.
+ */
+public class TransactionFlowReport {
+
+	public static final int RESPONSE = 0;
+	public static final int EXEC = 1;
+	public static final int EXEC_CPU = 2;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private final NameDictionary dictionary;
+	private final String[] valueFields;
+	private int agentCount;
+	private String[] names = new String[INITIAL_CAPACITY];
+	private String[] groups = new String[INITIAL_CAPACITY];
+	private String[] technologies = new String[INITIAL_CAPACITY];
+	// dictionary IDs of the split attributes, indexed by SplitOption ordinal
+	private int[][] splitIds = new int[SplitOption.values().length][INITIAL_CAPACITY];
+	private double[][] values;
+
+	private int linkCount;
+	private String[] linkFrom = new String[INITIAL_CAPACITY];
+	private String[] linkTo = new String[INITIAL_CAPACITY];
+	private int[] linkFromIds = new int[INITIAL_CAPACITY];
+	private int[] linkToIds = new int[INITIAL_CAPACITY];
+	private double[] linkCounts = new double[INITIAL_CAPACITY];
+	private CallGraph callGraph;
+
+	/**
+	 * @param valueFields
+	 *            the value attributes kept per agent, e.g.
+	 *            <tt>response_avg</tt>; their position is the field index
+	 */
+	public TransactionFlowReport(String... valueFields) {
+		this(new NameDictionary(), valueFields);
+	}
+
+	/**
+	 * @param dictionary
+	 *            the dictionary the names are interned in, usually shared by
+	 *            all reports of a monitor
+	 * @param valueFields
+	 *            the value attributes kept per agent, e.g.
+	 *            <tt>response_avg</tt>; their position is the field index
+	 */
+	public TransactionFlowReport(NameDictionary dictionary, String... valueFields) {
+		this.dictionary = dictionary;
+		this.valueFields = valueFields;
+		values = new double[valueFields.length][INITIAL_CAPACITY];
+	}
+
+	/**
+	 * Adds an agent. Its values are <tt>NaN</tt> until set with
+	 * {@link #setValue(int, int, double)}.
+	 *
+	 * @return the index of the new agent
+	 */
+	public int addAgent(String name, String group, String technology) {
+		if (agentCount == names.length) {
+			int capacity = agentCount << 1;
+			names = Arrays.copyOf(names, capacity);
+			groups = Arrays.copyOf(groups, capacity);
+			technologies = Arrays.copyOf(technologies, capacity);
+			for (int i = 0; i < splitIds.length; i++) {
+				splitIds[i] = Arrays.copyOf(splitIds[i], capacity);
+			}
+			for (int i = 0; i < values.length; i++) {
+				values[i] = Arrays.copyOf(values[i], capacity);
+			}
+		}
+		names[agentCount] = intern(name, splitIds[SplitOption.NAME.ordinal()], agentCount);
+		groups[agentCount] = intern(group, splitIds[SplitOption.GROUP.ordinal()], agentCount);
+		technologies[agentCount] = intern(technology, splitIds[SplitOption.TECHNOLOGY.ordinal()], agentCount);
+		for (int i = 0; i < values.length; i++) {
+			values[i][agentCount] = Double.NaN;
+		}
+		return agentCount++;
+	}
+
+	public void setValue(int field, int agent, double value) {
+		values[field][agent] = value;
+	}
+
+	public void addLink(String from, String to, double count) {
+		if (linkCount == linkTo.length) {
+			int capacity = linkCount << 1;
+			linkFrom = Arrays.copyOf(linkFrom, capacity);
+			linkTo = Arrays.copyOf(linkTo, capacity);
+			linkFromIds = Arrays.copyOf(linkFromIds, capacity);
+			linkToIds = Arrays.copyOf(linkToIds, capacity);
+			linkCounts = Arrays.copyOf(linkCounts, capacity);
+		}
+		linkFrom[linkCount] = intern(from, linkFromIds, linkCount);
+		linkTo[linkCount] = intern(to, linkToIds, linkCount);
+		linkCounts[linkCount] = count;
+		linkCount++;
+	}
+
+	private String intern(String value, int[] ids, int index) {
+		NameDictionary.Name name = dictionary.intern(value);
+		if (name == null) {
+			ids[index] = -1;
+			return null;
+		}
+		ids[index] = name.getId();
+		return name.getValue();
+	}
+
+	/**
+	 * Returns the dictionary the names of the report were interned in; the
+	 * IDs of the report refer to it.
+	 */
+	public NameDictionary getDictionary() {
+		return dictionary;
+	}
+
+	public String[] getValueFields() {
+		return valueFields.clone();
+	}
+
+	/**
+	 * Returns the field index of a value attribute, or -1 if the report does
+	 * not keep it.
+	 */
+	public int getFieldIndex(String valueField) {
+		for (int i = 0; i < valueFields.length; i++) {
+			if (valueFields[i].equals(valueField)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public int getAgentCount() {
+		return agentCount;
+	}
+
+	public int getLinkCount() {
+		return linkCount;
+	}
+
+	public String getName(int agent) {
+		return names[agent];
+	}
+
+	public String getGroup(int agent) {
+		return groups[agent];
+	}
+
+	public String getTechnology(int agent) {
+		return technologies[agent];
+	}
+
+	/**
+	 * Returns the split attribute of an agent.
+	 */
+	public String getSplitValue(int agent, SplitOption splitOption) {
+		switch (splitOption) {
+		case GROUP:
+			return groups[agent];
+		case TECHNOLOGY:
+			return technologies[agent];
+		default:
+			return names[agent];
+		}
+	}
+
+	/**
+	 * Returns the dictionary ID of the split attribute of an agent, or -1 if
+	 * the agent does not have it.
+	 */
+	public int getSplitId(int agent, SplitOption splitOption) {
+		return splitIds[splitOption.ordinal()][agent];
+	}
+
+	public double getValue(int field, int agent) {
+		return values[field][agent];
+	}
+
+	public String getLinkFrom(int link) {
+		return linkFrom[link];
+	}
+
+	public String getLinkTo(int link) {
+		return linkTo[link];
+	}
+
+	/**
+	 * Returns the dictionary ID of the caller of a link, or -1 if it is
+	 * missing.
+	 */
+	public int getLinkFromId(int link) {
+		return linkFromIds[link];
+	}
+
+	/**
+	 * Returns the dictionary ID of the callee of a link, or -1 if it is
+	 * missing.
+	 */
+	public int getLinkToId(int link) {
+		return linkToIds[link];
+	}
+
+	public double getRemotingCount(int link) {
+		return linkCounts[link];
+	}
+
+	/**
+	 * Returns the calls between the agents of the report; node IDs are agent
+	 * indexes. Must not be called before the report is complete.
+	 */
+	public synchronized CallGraph getCallGraph() {
+		if (callGraph == null) {
+			callGraph = CallGraph.build(this);
+		}
+		return callGraph;
+	}
+}